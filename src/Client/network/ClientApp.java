@@ -4,6 +4,9 @@ package Client.network;
 import Client.model.Restaurant;
 import Server.Models.Order;
 import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
 import com.google.gson.reflect.TypeToken;
 
 import java.io.*;
@@ -12,9 +15,12 @@ import java.net.Socket;
 import java.nio.file.Files;
 import java.util.*;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.LinkedBlockingQueue;
 import javax.swing.Timer;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import static Server.Utilities.CustomDateAdapter.gsonCreator;
 
@@ -38,6 +44,12 @@ public class ClientApp implements Runnable {
     private Map<String,Object> latestRequest = new HashMap<>(); // Stores the latest request if connection fails
     private boolean firstTime = true; // Flag indicating if it's the first connection attempt
     private boolean restartConnection = false; // Flag to restart connection if needed
+    private final AtomicLong nextRequestId = new AtomicLong(); // Source of requestIds for pipelined requests
+    private final Map<String, CompletableFuture<Map<String, Object>>> pendingRequests = new ConcurrentHashMap<>(); // Pipelined requests waiting for their response
+    private volatile String sessionToken; // Token from the last login, sent instead of the password
+    private final Map<String, Map<String, Object>> menuCache = new ConcurrentHashMap<>(); // Restaurant -> last full getMenu response
+    private final Map<String, String> pendingMenus = new ConcurrentHashMap<>(); // requestId -> restaurant of a getMenu in flight
+    private static final Set<String> PASSWORD_REQUESTS = Set.of("login", "signupCustomer", "signupRestaurant", "signupDelivery", "changePassword"); // Always send the password
 
     // Constructor to initialize the ClientApp with server address and port
     public ClientApp(String serverAddress, int port) {
@@ -84,6 +96,7 @@ public class ClientApp implements Runnable {
             in = new BufferedReader(new InputStreamReader(clientSocket.getInputStream()));
             running = true;
             System.out.println("Connected to the server at " + serverAddress + ":" + port);
+            sessionToken = null; // The server may have restarted, authenticate with the password until the next login
 
             if(isRestaurant && !firstTime && !restaurantReconnectRequests.isEmpty()){
                 requestQueue.put(restaurantReconnectRequests);
@@ -158,6 +171,23 @@ public class ClientApp implements Runnable {
         }
     }
 
+    // Tags a request with a requestId so the server may run it concurrently with other tagged requests.
+    // The response still goes to the response queue and is routed by its type.
+    public void addPipelinedRequest(Map<String, Object> request) {
+        request.put("requestId", String.valueOf(nextRequestId.incrementAndGet()));
+        addRequest(request);
+    }
+
+    // Sends a tagged request and returns a future that completes with its response, in whatever order responses arrive
+    public CompletableFuture<Map<String, Object>> sendPipelined(Map<String, Object> request) {
+        String requestId = String.valueOf(nextRequestId.incrementAndGet());
+        CompletableFuture<Map<String, Object>> future = new CompletableFuture<>();
+        pendingRequests.put(requestId, future);
+        request.put("requestId", requestId);
+        addRequest(request);
+        return future;
+    }
+
     // Retrieves the next response from the response queue
     public Map<String, Object> getResponse() {
         return responseQueue.poll(); // Retrieve and remove the head of the response queue
@@ -167,7 +197,7 @@ public class ClientApp implements Runnable {
     private void sendRequest(Map<String, Object> request) {
         try {
             if (out != null && request != null) {
-                String jsonRequest = gson.toJson(request);
+                String jsonRequest = gson.toJson(withSessionToken(request));
                 System.out.println("Sending request: " + jsonRequest);
                 out.println(jsonRequest);  // Send request, do not wait for response here
             }
@@ -177,25 +207,64 @@ public class ClientApp implements Runnable {
         }
     }
 
+    // Returns the request with the session token in place of the password, if there is a token
+    private Map<String, Object> withSessionToken(Map<String, Object> request) {
+        String token = sessionToken;
+        if (token == null || !request.containsKey("password") || PASSWORD_REQUESTS.contains(String.valueOf(request.get("type")))) {
+            return request;
+        }
+        Map<String, Object> withToken = new HashMap<>(request);
+        withToken.remove("password");
+        withToken.put("sessionToken", token);
+        return withToken;
+    }
+
     // Handles incoming messages from the server by parsing them into a map format
     private void handleServerMessage(String message) {
         try {
             // Process the message here, assuming it's JSON
             Map<String, Object> response = getFormattedResponse(message);
+            if (response != null && "ping".equals(response.get("type"))) {
+                // Keepalive from the server, answer it so a quiet session is not closed
+                Map<String, Object> pong = new HashMap<>();
+                pong.put("type", "pong");
+                addRequest(pong);
+                return;
+            }
+            if (response != null && "handleLogin".equals(response.get("type")) && response.get("sessionToken") != null) {
+                sessionToken = String.valueOf(response.get("sessionToken"));
+            }
+            if (response != null && "handleGetMenu".equals(response.get("type"))) {
+                response = resolveMenuResponse(response);
+            }
             if (response != null) {
-                responseQueue.put(response); // Enqueue response
+                // Complete the future of a pipelined request, everything else goes to the queue
+                Object requestId = response.get("requestId");
+                CompletableFuture<Map<String, Object>> future = requestId == null ? null : pendingRequests.remove(String.valueOf(requestId));
+                if (future != null) {
+                    future.complete(response);
+                } else {
+                    responseQueue.put(response); // Enqueue response
+                }
             }
         } catch (Exception e) {
             e.printStackTrace();
         }
     }
 
-    // Parses a JSON string response into a map format
+    // Parses a JSON string response into a map format.
+    // The server embeds structured payloads (menus, orders, ...) as real JSON in "message",
+    // they are handed to the GUI as JSON text so it can decode them into its own types.
     private Map<String, Object> getFormattedResponse(String response) throws IOException {
         if (response != null && response.startsWith("{")) {
+            JsonObject json = JsonParser.parseString(response).getAsJsonObject();
+            JsonElement message = json.get("message");
+            if (message != null && !(message.isJsonPrimitive() && message.getAsJsonPrimitive().isString())) {
+                json.addProperty("message", message.toString());
+            }
             Type type = new TypeToken<Map<String, Object>>() {
             }.getType();
-            return gson.fromJson(response, type);
+            return gson.fromJson(json, type);
         } else {
             System.out.println("Unexpected server response: " + response);
             return createErrorResponse("Unexpected server response: " + response);
@@ -258,7 +327,7 @@ public class ClientApp implements Runnable {
         request.put("username", username);
         request.put("password", password);
 
-        addRequest(request); // Adds the request to the queue for processing
+        addPipelinedRequest(request); // Read-only, so the server may run it next to other reads
     }
 
     // Method to search for restaurants
@@ -281,8 +350,34 @@ public class ClientApp implements Runnable {
         Map<String, Object> request = new HashMap<>();
         request.put("type", "getMenu");
         request.put("restaurantName", restaurantName); // Specifies which restaurant's menu to fetch
-
-        addRequest(request); // Adds the request to the queue for processing
+        Map<String, Object> cached = menuCache.get(restaurantName);
+        if (cached != null) {
+            request.put("version", cached.get("menuVersion")); // The server answers "Not modified" if it is still current
+        }
+        String requestId = String.valueOf(nextRequestId.incrementAndGet());
+        request.put("requestId", requestId);
+        pendingMenus.put(requestId, restaurantName);
+        addRequest(request); // Read-only, so the server may run it next to other reads
+    }
+
+    // Replaces a "Not modified" menu response with the cached menu and caches full ones
+    private Map<String, Object> resolveMenuResponse(Map<String, Object> response) {
+        Object requestId = response.get("requestId");
+        String restaurantName = requestId == null ? null : pendingMenus.remove(String.valueOf(requestId));
+        if (restaurantName == null || !"true".equals(response.get("success")) || response.get("menuVersion") == null) {
+            return response;
+        }
+        if ("Not modified".equals(response.get("message"))) {
+            Map<String, Object> cached = menuCache.get(restaurantName);
+            if (cached != null) {
+                Map<String, Object> menu = new HashMap<>(cached);
+                menu.put("requestId", requestId);
+                return menu;
+            }
+            return response;
+        }
+        menuCache.put(restaurantName, response);
+        return response;
     }
 
     // Method to convert JSON string to a Map
@@ -623,7 +718,7 @@ public class ClientApp implements Runnable {
         request.put("type", "getUserData");
         request.put("username", username);
         request.put("password", password);
-        addRequest(request);
+        addPipelinedRequest(request); // Read-only, so the server may run it next to other reads
     }
 
     // Method to upload a profile picture
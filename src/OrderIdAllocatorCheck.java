@@ -0,0 +1,86 @@
+import Server.App.OrderIdAllocator;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+
+// Checks that OrderIdAllocator never hands out an ID twice, with many threads taking IDs at once and the
+// server restarting in the middle of a block. Runs against a temporary directory, not server_logs.
+// Run it with: java -cp <classes> OrderIdAllocatorCheck [threads] [ids per thread] [restarts]
+public class OrderIdAllocatorCheck {
+    public static final int THREADS = 64;
+    public static final int IDS_PER_THREAD = 1_234; // Not a multiple of the block size, so every restart is mid-block
+    public static final int RESTARTS = 5;
+
+    public static void main(String[] args) throws Exception {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : THREADS;
+        int perThread = args.length > 1 ? Integer.parseInt(args[1]) : IDS_PER_THREAD;
+        int restarts = args.length > 2 ? Integer.parseInt(args[2]) : RESTARTS;
+        Path directory = Files.createTempDirectory("order-ids");
+        Set<Integer> handedOut = ConcurrentHashMap.newKeySet();
+        int highestOrderId = -1;
+
+        for (int run = 0; run <= restarts; run++) {
+            // A new allocator on the same file is a restart, every other one also passes the highest ID as if
+            // those orders were loaded from the journal
+            OrderIdAllocator ids = new OrderIdAllocator(directory.toString());
+            ids.load(run % 2 == 0 ? -1 : highestOrderId);
+            int[][] taken = new int[threads][perThread];
+            CountDownLatch start = new CountDownLatch(1);
+            List<Thread> workers = new ArrayList<>();
+            List<Throwable> failures = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                int thread = t;
+                workers.add(Thread.ofVirtual().start(() -> {
+                    try {
+                        start.await();
+                        for (int i = 0; i < perThread; i++) {
+                            taken[thread][i] = ids.next();
+                        }
+                    } catch (IOException | InterruptedException | RuntimeException e) {
+                        synchronized (failures) {
+                            failures.add(e);
+                        }
+                    }
+                }));
+            }
+            long startNanos = System.nanoTime();
+            start.countDown();
+            for (Thread worker : workers) {
+                worker.join();
+            }
+            long elapsedNanos = System.nanoTime() - startNanos;
+            if (!failures.isEmpty()) {
+                throw new IllegalStateException("next() failed", failures.get(0));
+            }
+
+            int duplicates = 0;
+            for (int[] thread : taken) {
+                for (int id : thread) {
+                    if (!handedOut.add(id)) {
+                        duplicates++;
+                    }
+                    highestOrderId = Math.max(highestOrderId, id);
+                }
+            }
+            int mark = Integer.parseInt(Files.readString(directory.resolve("order_id.txt"), StandardCharsets.UTF_8).trim());
+            System.out.printf("Run %d: %d IDs, %d duplicates, highest %d, mark on disk %d, %d blocks reserved, %.0f ns per ID%n",
+                    run, threads * perThread, duplicates, highestOrderId, mark, ids.getReservationCount(), (double) elapsedNanos / (threads * perThread));
+            if (duplicates > 0) {
+                throw new IllegalStateException(duplicates + " IDs were handed out twice");
+            }
+            if (mark <= highestOrderId) {
+                throw new IllegalStateException("The mark on disk " + mark + " is not above the highest ID " + highestOrderId);
+            }
+        }
+        Files.delete(directory.resolve("order_id.txt"));
+        Files.delete(directory);
+        System.out.println("OK: " + handedOut.size() + " unique IDs over " + (restarts + 1) + " runs");
+    }
+}
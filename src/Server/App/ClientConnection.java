@@ -0,0 +1,34 @@
+// Group: 6
+package Server.App;
+
+/**
+ * ClientConnection is the server side of a single client link.
+ * Handlers and pushes only talk to this interface, so they do not care whether the bytes
+ * are moved by a blocking socket thread or by the NIO reactor. Either way every connection owns a single
+ * outbound queue and a single writer, so any thread may send or push at any time.
+ */
+public interface ClientConnection {
+
+    // Encodes a response to a request and queues it for the client.
+    // Responses are never dropped, a client that does not read them stops being read from (see OutboundQueue).
+    void send(Response response);
+
+    // Queues a server initiated event without ever waiting, returns false if it was dropped
+    // because the connection is closed or the client is too far behind
+    boolean push(Response event);
+
+    // Switches the connection to length-prefixed frames, later requests and responses are framed (see Frame)
+    void upgradeToFrames();
+
+    // Returns the time (System.currentTimeMillis) the client last sent anything, used by SessionReaper
+    long getLastReadMillis();
+
+    // Returns true once the underlying channel has been closed
+    boolean isClosed();
+
+    // Closes the underlying channel, pending output may be dropped
+    void close();
+
+    // Returns a printable address of the remote peer
+    String getRemoteAddress();
+}
@@ -3,125 +3,252 @@ package Server.App;
 
 import Server.Models.*;
 import Server.Utilities.CreditCardAuthenticator;
+import Server.Utilities.GeoGrid;
 import Server.Utilities.GeoLocationService;
+import Server.Utilities.ServerLogger;
+import Server.Utilities.TokenBucket;
 import com.google.gson.Gson;
-import com.google.gson.reflect.TypeToken;
 
 import java.io.*;
-import java.lang.reflect.Type;
 import java.net.Socket;
 import java.nio.file.Files;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.*;
 import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
 
 import static Server.App.ServerApp.DELIVERY_FEE;
-import static java.lang.Thread.sleep;
 import static Server.ServerMain.IMAGE_URL;
 
-// ClientHandler is responsible for handling communication with a single client in a separate thread
+// ClientHandler is responsible for handling communication with a single client.
+// In pool mode it owns a thread and loops over the socket, in reactor mode the ConnectionReactor feeds it complete requests.
 public class ClientHandler implements Runnable {
-    private final Socket clientSocket;
-    private Gson gson;
+    private final ClientConnection connection;
+    private final Gson gson;
     private final GeoLocationService geoLocationService;
+    private final TokenBucket connectionBucket = RateLimiter.newConnectionBucket(); // Limits this connection's request rate
+    private final Executor pipelineExecutor; // Runs requests that carry a requestId
+    private volatile String sessionUser; // User whose session (push subscriptions) is set up on this connection
+
+    // A handler for one request type
+    private interface RequestHandler {
+        Response handle(ClientHandler handler, Request request) throws IOException;
+    }
+
+    // Dispatch table from request type to handler, built once for all connections
+    private static final Map<RequestType, RequestHandler> HANDLERS = new EnumMap<>(RequestType.class);
+
+    static {
+        HANDLERS.put(RequestType.LOGIN, ClientHandler::handleLogin);
+        HANDLERS.put(RequestType.SIGNUP_CUSTOMER, (handler, request) -> handler.handleSignUp(request, "customer"));
+        HANDLERS.put(RequestType.SIGNUP_RESTAURANT, (handler, request) -> handler.handleSignUp(request, "restaurant"));
+        HANDLERS.put(RequestType.SIGNUP_DELIVERY, (handler, request) -> handler.handleSignUp(request, "delivery"));
+        HANDLERS.put(RequestType.GET_RESTAURANTS, ClientHandler::handleGetRestaurants);
+        HANDLERS.put(RequestType.GET_MENU, ClientHandler::handleGetMenu);
+        HANDLERS.put(RequestType.PLACE_ORDER, ClientHandler::handlePlaceOrder);
+        HANDLERS.put(RequestType.UPDATE_MENU, ClientHandler::handleUpdateMenu);
+        HANDLERS.put(RequestType.UPDATE_CREDIT_CARD, ClientHandler::handleUpdateCreditCard);
+        HANDLERS.put(RequestType.GET_ORDERS_HISTORY, ClientHandler::handleGetOrdersHistory);
+        HANDLERS.put(RequestType.MARK_ORDER_READY_FOR_PICKUP, ClientHandler::handleMarkOrderReadyForPickup);
+        HANDLERS.put(RequestType.DISABLE_MENU_ITEM, ClientHandler::handleDisableMenuItems);
+        HANDLERS.put(RequestType.ENABLE_MENU_ITEM, ClientHandler::handleEnableMenuItems);
+        HANDLERS.put(RequestType.GET_CURRENT_ORDERS, ClientHandler::handleGetCurrentOrders);
+        HANDLERS.put(RequestType.GET_AVAILABLE_CUISINES, (handler, request) -> handler.handleGetAvailableCuisines());
+        HANDLERS.put(RequestType.CHANGE_PASSWORD, ClientHandler::handleChangePassword);
+        HANDLERS.put(RequestType.CHANGE_EMAIL, ClientHandler::handleChangeEmail);
+        HANDLERS.put(RequestType.DISCONNECT, ClientHandler::handleDisconnect);
+        HANDLERS.put(RequestType.UPLOAD_PROFILE_PICTURE, ClientHandler::handleProfilePictureUpload);
+        HANDLERS.put(RequestType.GET_IMAGE, ClientHandler::handleGetImage);
+        HANDLERS.put(RequestType.CHANGE_PARAMETER, ClientHandler::handleUpdateParameter);
+        HANDLERS.put(RequestType.DELETE_ACCOUNT, ClientHandler::handleDeleteAccount);
+        HANDLERS.put(RequestType.GET_DELIVERY_ORDERS, ClientHandler::handleGetDeliveryOrders);
+        HANDLERS.put(RequestType.PICKUP_ORDER, ClientHandler::handlePickupOrder);
+        HANDLERS.put(RequestType.CHECK_IF_ON_DELIVERY, ClientHandler::handleCheckIfOnDelivery);
+        HANDLERS.put(RequestType.MARK_ORDER_DELIVERED, ClientHandler::handleMarkOrderDelivered);
+        HANDLERS.put(RequestType.GET_USER_DATA, ClientHandler::handleGetUserData);
+        HANDLERS.put(RequestType.GET_INCOME_DATA, ClientHandler::handleGetIncomeData);
+        HANDLERS.put(RequestType.UPGRADE_PROTOCOL, (handler, request) -> handler.handleUpgradeProtocol(request, false));
+        HANDLERS.put(RequestType.PING, (handler, request) -> handler.handlePing());
+        HANDLERS.put(RequestType.PONG, (handler, request) -> handler.handlePong());
+        HANDLERS.put(RequestType.GET_SERVER_STATS, (handler, request) -> handler.handleGetServerStats());
+        HANDLERS.put(RequestType.SEARCH_ITEMS, ClientHandler::handleSearchItems);
+    }
 
     // Constructor to initialize client handler with the client's socket
-    public ClientHandler(Socket clientSocket) {
-        this.clientSocket = clientSocket;
-        this.gson = ServerApp.gsonCreator();
+    public ClientHandler(Socket clientSocket, Executor pipelineExecutor) throws IOException {
+        this(SocketConnection.open(clientSocket), pipelineExecutor);
+    }
+
+    // Constructor to initialize client handler with an already wrapped connection
+    public ClientHandler(ClientConnection connection, Executor pipelineExecutor) {
+        this.connection = connection;
+        this.pipelineExecutor = pipelineExecutor;
+        this.gson = ServerApp.gson; // Shared, so its type adapters are built once
         this.geoLocationService = new GeoLocationService(); // Initialize the GeoLocationService
+        SessionReaper.register(connection);
     }
 
-    // The main method that handles client requests
+    // The blocking loop used when every client gets its own thread
     @Override
     public void run() {
-        try (BufferedReader in = new BufferedReader(new InputStreamReader(clientSocket.getInputStream()));
-             PrintWriter out = new PrintWriter(clientSocket.getOutputStream(), true)) {
-            String inputLine = " ";
+        if (!(connection instanceof SocketConnection socketConnection)) {
+            throw new IllegalStateException("Only socket connections can be run on their own thread");
+        }
+        try {
+            Frame frame;
+            boolean firstRequest = true;
             // Continuously listen for client requests
-            while (inputLine != null) {
-                try {
-                    inputLine = in.readLine(); // Read client's request
-                } catch (IOException e) {
-                    clientSocket.close(); // Close socket on error
-                    e.printStackTrace();
-                    break;
-                }
-                System.out.println("Received from client: " + inputLine);
-
-                // Parse the incoming JSON request
-                Map<String, String> request = parseRequest(inputLine);
-                if (request == null) {
-                    out.println(createResponse(false, "Invalid request format"));
-                    continue;
-                }
-                String type = request.get("type");
-                String response;
-                try {
-                    // Handle request based on its type
-                    response = switch (type) {
-                        case "login" -> handleLogin(request);
-                        case "signupCustomer" -> handleSignUp(request, "customer");
-                        case "signupRestaurant" -> handleSignUp(request, "restaurant");
-                        case "signupDelivery" -> handleSignUp(request, "delivery");
-                        case "getRestaurants" -> handleGetRestaurants(request);
-                        case "getMenu" -> handleGetMenu(request);
-                        case "placeOrder" -> handlePlaceOrder(request);
-                        case "updateMenu" -> handleUpdateMenu(request);
-                        case "updateCreditCard" -> handleUpdateCreditCard(request);
-                        case "getOrdersHistory" -> handleGetOrdersHistory(request);
-                        case "markOrderReadyForPickup" -> handleMarkOrderReadyForPickup(request);
-                        case "disableMenuItem" -> handleDisableMenuItems(request);
-                        case "enableMenuItem" -> handleEnableMenuItems(request);
-                        case "getCurrentOrders" -> handleGetCurrentOrders(request);
-                        case "getAvailableCuisines" -> handleGetAvailableCuisines();
-                        case "changePassword" -> handleChangePassword(request);
-                        case "changeEmail" -> handleChangeEmail(request);
-                        case "disconnect" -> handleDisconnect(request);
-                        case "uploadProfilePicture" -> handleProfilePictureUpload(request);
-                        case "getImage" -> handleGetImage(request);
-                        case "changeParameter" -> handleUpdateParameter(request);
-                        case "deleteAccount" -> handleDeleteAccount(request);
-                        case "getDeliveryOrders" -> handleGetDeliveryOrders(request);
-                        case "pickupOrder" -> handlePickupOrder(request);
-                        case "checkIfOnDelivery" -> handleCheckIfOnDelivery(request);
-                        case "markOrderDelivered" -> handleMarkOrderDelivered(request);
-                        case "getUserData" -> handleGetUserData(request);
-                        case "getIncomeData" -> handleGetIncomeData(request);
-                        default -> handleDefault();
-                    };
-
-                    // Send the response back to the client
-                    System.out.println("Sending to client: " + response);
-                    out.println(response);
-                    Thread.sleep(500);
+            while ((frame = socketConnection.readFrame()) != null) {
+                if (firstRequest) {
+                    firstRequest = false;
+                    if (upgradeIfRequested(frame.header())) {
+                        continue;
+                    }
                 }
-                catch (Exception e) {
-                    response = createResponse(false, "Error: " + e.getMessage());
-                    out.println(response);
+                if (RateLimiter.tryAdmit()) {
+                    processFrame(frame, RateLimiter::release);
+                } else {
+                    socketConnection.send(handleServerBusy());
                 }
-
             }
         } catch (Exception e) {
-            e.printStackTrace();
-
+            if (!connection.isClosed()) { // Otherwise it was closed on purpose, for example by SessionReaper
+                ServerLogger.error("connection", "Connection to " + connection.getRemoteAddress() + " failed", e);
+            }
         } finally {
+            connection.close();
+        }
+    }
+
+    // Handles one complete request (a line or a frame) and sends the response to the client.
+    // Requests that carry a "requestId" are handed to the pipeline executor and may complete out of order.
+    // All other requests run on the calling thread in arrival order, so a pipelined request never starts
+    // before the plain requests sent ahead of it have finished.
+    public void processFrame(Frame frame, Runnable onComplete) {
+        ServerLogger.info("request", "Received from client: ", frame.header());
+        Request request = Request.parse(frame.header(), frame.attachment(), gson);
+        if (request.getRequestId() != null) {
             try {
-                if (!clientSocket.isClosed())
-                    clientSocket.close();
-            } catch (IOException e) {
-                e.printStackTrace();
+                pipelineExecutor.execute(() -> respond(request, onComplete));
+                return;
+            } catch (RejectedExecutionException e) {
+                // Executor is shutting down, answer on this thread instead
+            }
+        }
+        respond(request, onComplete);
+    }
+
+    // Runs a decoded request and sends its response, tagged with the request ID if there is one
+    private void respond(Request request, Runnable onComplete) {
+        try {
+            Response response = handleRequest(request);
+            if (response != null) {
+                connection.send(response.withRequestId(request.getRequestId()));
+            }
+        } finally {
+            onComplete.run();
+        }
+    }
+
+    // Runs the handler for a decoded request and returns its response
+    public Response handleRequest(Request request) {
+        // Throttle clients that exceed the connection rate, the user rate is charged once a handler authenticated the user
+        if (!connectionBucket.tryAcquire()) {
+            return handleRateLimited(connectionBucket.millisUntilNextToken());
+        }
+        // Malformed requests and unknown fields are rejected before any handler runs
+        if (!request.isValid()) {
+            return createResponse(ResponseType.INVALID_REQUEST, false, request.getError());
+        }
+
+        RequestHandler handler = request.getType() == null ? null : HANDLERS.get(request.getType());
+        if (handler == null) {
+            return handleDefault();
+        }
+        Response response;
+        try {
+            response = handler.handle(this, request);
+
+            // Send the response back to the client, some requests (pong) have none
+            if (response != null) {
+                ServerLogger.info("response", "Sending to client: " + response.getType().getWireName() + " success=" + response.isSuccess());
             }
         }
+        catch (RateLimiter.UserRateExceeded e) {
+            response = handleRateLimited(e.getRetryAfterMillis());
+        }
+        catch (Exception e) {
+            response = createResponse(ResponseType.INVALID_REQUEST, false, "Error: " + e.getMessage());
+        }
+        return response;
+    }
+
+    // Answers a protocol upgrade sent as the first request of a connection.
+    // Returns true if the line was an upgrade request, the connection switches to frames if the upgrade was accepted.
+    public boolean upgradeIfRequested(String firstLine) {
+        if (!firstLine.contains(RequestType.UPGRADE_PROTOCOL.getWireName())) {
+            return false; // Cheap check, so ordinary first requests are not decoded twice
+        }
+        Request request = Request.parse(firstLine, gson);
+        if (request.getType() != RequestType.UPGRADE_PROTOCOL) {
+            return false;
+        }
+        Response response = handleUpgradeProtocol(request, true);
+        connection.send(response.withRequestId(request.getRequestId()));
+        if (response.isSuccess()) {
+            connection.upgradeToFrames();
+        }
+        return true;
+    }
+
+    // Accepts a switch to length-prefixed frames, which is only possible before any other request
+    private Response handleUpgradeProtocol(Request request, boolean firstRequest) {
+        if (!request.isValid()) {
+            return createResponse(ResponseType.INVALID_REQUEST, false, request.getError());
+        }
+        if (!firstRequest) {
+            return createResponse(ResponseType.UPGRADE_PROTOCOL, false, "Protocol upgrade is only possible as the first request");
+        }
+        if (!Frame.PROTOCOL_NAME.equals(request.get("protocol"))) {
+            return createResponse(ResponseType.UPGRADE_PROTOCOL, false, "Unsupported protocol");
+        }
+        return createResponse(ResponseType.UPGRADE_PROTOCOL, true, Frame.PROTOCOL_NAME);
+    }
+
+    // Tells a client that sends too fast when it may try again
+    private Response handleRateLimited(long retryAfterMillis) {
+        return createResponse(ResponseType.RATE_LIMITED, false, "Too many requests, retry later (in " + Math.max(retryAfterMillis, 1) + " ms)");
+    }
+
+    // Tells a client that the server is saturated and the request was not processed
+    public Response handleServerBusy() {
+        return createResponse(ResponseType.SERVER_BUSY, false, "Server is busy, retry later");
+    }
+
+    // Answers a client's own keepalive
+    private Response handlePing() {
+        return createResponse(ResponseType.PONG, true, "pong");
+    }
+
+    // A client's answer to the server's ping, reading it already marked the connection alive so nothing is sent back
+    private Response handlePong() {
+        SessionReaper.pongReceived();
+        return null;
+    }
+
+    // Returns connection liveness and push counters
+    private Response handleGetServerStats() {
+        return createPayloadResponse(ResponseType.GET_SERVER_STATS, SessionReaper.getStats());
     }
 
     // Handle fetching user data based on the request parameters
-    private String handleGetUserData(Map<String, String> request) {
+    private Response handleGetUserData(Request request) {
         String username = request.get("username");
         User user = authenticateUser(request);
         if (user == null) {
-            return createResponse(false, "User not found");
+            return createResponse(ResponseType.GET_USER_DATA, false, "User not found");
         }
         Map<String, String> userData = new HashMap<>();
         userData.put("username", user.getUserName());
@@ -142,25 +269,17 @@ public class ClientHandler implements Runnable {
             userData.put("profilePicture", restaurant.getProfilePictureUrl());
         }
 
-        return createResponse(true, gson.toJson(userData));
+        return createPayloadResponse(ResponseType.GET_USER_DATA, userData);
     }
 
-    // Parse the client's JSON request into a Map
-    private Map<String, String> parseRequest(String inputLine) {
-        Type type = new TypeToken<HashMap<String, Object>>() {}.getType();
-        return gson.fromJson(inputLine, type);
+    // Create a response with a plain text message
+    private Response createResponse(ResponseType type, boolean success, String message) {
+        return Response.message(type, success, message);
     }
 
-    // Create a response JSON string
-    private String createResponse(boolean success, String message) {
-        Map<String, String> response = new HashMap<>();
-        response.put("success", String.valueOf(success));
-        response.put("message", message);
-        StackTraceElement[] stacktrace = Thread.currentThread().getStackTrace();
-        StackTraceElement e = stacktrace[2];//maybe this number needs to be corrected
-        String methodName = e.getMethodName();
-        response.put("type" , methodName);
-        return gson.toJson(response);
+    // Create a successful response that embeds the payload as JSON
+    private Response createPayloadResponse(ResponseType type, Object payload) {
+        return Response.payload(type, payload);
     }
 
     // Save an image for a menu item to the server's file system
@@ -199,64 +318,66 @@ public class ClientHandler implements Runnable {
         }
     }
 
-    // Authenticate a user based on the provided credentials
-    private User authenticateUser(Map<String, String> params) {
-        String username = params.get("username");
-        String password = hashPassword(params.get("password"));
-        for (User user : ServerApp.allUsers) {
-            if (user.getUserName().equals(username) && user.checkPassword(password)) {
-                handleLogin(params);
-                return user;
+    // Authenticate a user by the session token from login, or by username and password for clients without one.
+    // A connection's session is set up the first time its user authenticates on it, not on every request.
+    private User authenticateUser(Request params) {
+        String token = params.get("sessionToken");
+        User user;
+        if (token != null) {
+            String username = SessionTokens.validate(token);
+            if (username == null || (params.get("username") != null && !params.get("username").equals(username))) {
+                return null;
             }
+            params.put("username", username); // Handlers read the username from the request
+            user = charged(ServerApp.allUsers.get(username));
+        } else {
+            user = authenticateWithPassword(params);
         }
-        return null;
+        if (user != null && !user.getUserName().equals(sessionUser)) {
+            loggedIn(user);
+        }
+        return user;
     }
 
-    // Check if an email already exists in the system
-    private boolean emailExists(String email) {
-        for (User user : ServerApp.allUsers) {
-            if (user instanceof CustomerUser && user.getEmail().equals(email)) {
-                return true;
-            }
+    // Authenticate a user by username and password only, for requests that must prove the password
+    private User authenticateWithPassword(Request params) {
+        String password = params.get("password");
+        if (password == null) {
+            return null;
         }
-        return false;
+        return charged(ServerApp.allUsers.authenticate(params.get("username"), hashPassword(password)));
     }
 
-    // Check if a username already exists in the system
-    private boolean usernameExists(String username) {
-        for (User user : ServerApp.allUsers) {
-            if (user.getUserName().equals(username)) {
-                return true;
-            }
+    // Returns true if a request of an authenticated user also carries the user's current password, for changes a
+    // session token alone may not make. Without a token authenticateUser already checked the password.
+    // The request was charged to the user's rate when it authenticated, so it is not charged again.
+    private boolean provesPassword(Request params, User user) {
+        if (params.get("sessionToken") == null) {
+            return true;
         }
-        return false;
+        String password = params.get("password");
+        return password != null && ServerApp.allUsers.authenticate(user.getUserName(), hashPassword(password)) == user;
     }
 
-
-    private int incrementOrderId() {
-        String idFilePath = "server_logs/order_id.txt";
-        File idFile = new File(idFilePath);
-        if (!idFile.exists()) {
-            try (PrintWriter writer = new PrintWriter(idFilePath)) {
-                writer.println("0");
-            } catch (FileNotFoundException e) {
-                e.printStackTrace();
-            }
-        }
-        int orderID = 0;
-        try (BufferedReader reader = new BufferedReader(new FileReader(idFilePath)) ) {
-            orderID = Integer.parseInt(reader.readLine());
-        } catch (IOException e) {
-            e.printStackTrace();
+    // Charges the request to an authenticated user's rate, throws RateLimiter.UserRateExceeded if the user is over it
+    private static User charged(User user) {
+        if (user != null) {
+            RateLimiter.acquireForUser(user.getUserName());
         }
-        try (PrintWriter writer = new PrintWriter(idFilePath)) {
-            writer.println(orderID + 1);
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-        return orderID;
+        return user;
+    }
+
+    // Check if an email already exists in the system
+    private boolean emailExists(String email) {
+        return ServerApp.allUsers.containsEmail(email, CustomerUser.class);
+    }
+
+    // Check if a username already exists in the system
+    private boolean usernameExists(String username) {
+        return ServerApp.allUsers.containsUsername(username);
     }
 
+
     private boolean checkToken(String token) {
         if (token.length() < 3)
             return false;
@@ -266,7 +387,7 @@ public class ClientHandler implements Runnable {
             try {
                 file.createNewFile();
             } catch (IOException e) {
-                e.printStackTrace();
+                ServerLogger.error("storage", e.getMessage(), e);
             }
         }
         boolean tokenFound = false;
@@ -293,11 +414,11 @@ public class ClientHandler implements Runnable {
                 writer.flush();
                 writer.close();
             } catch (IOException e) {
-                e.printStackTrace();
+                ServerLogger.error("storage", e.getMessage(), e);
             }
 
         } catch (FileNotFoundException e) {
-            e.printStackTrace();
+            ServerLogger.error("storage", e.getMessage(), e);
         }
 
         return tokenFound;
@@ -333,42 +454,44 @@ public class ClientHandler implements Runnable {
     }
 
     // Handle a login request from the client
-    private String handleLogin(Map<String, String> params) {
+    private Response handleLogin(Request params) {
         String username = params.get("username");
         String password = params.get("password");
 
-        User userToLogIn = null;
-
-        for (User user : ServerApp.allUsers) {
-            if (user.getUserName().equals(username) && user.checkPassword(hashPassword(password))) {
-                userToLogIn = user;
-                break;
-            }
-        }
+        User userToLogIn = charged(ServerApp.allUsers.authenticate(username, hashPassword(password)));
 
         if (userToLogIn == null) {
-            return createResponse(false, "Invalid username or password");
+            return createResponse(ResponseType.LOGIN, false, "Invalid username or password");
         }
+        Response response = loggedIn(userToLogIn);
+        return response.isSuccess() ? response.withField("sessionToken", SessionTokens.issue(userToLogIn.getUserName())) : response;
+    }
 
+    // Registers the session of an authenticated user (push subscriptions, logged-in restaurants) and returns the login response
+    private Response loggedIn(User userToLogIn) {
+        sessionUser = userToLogIn.getUserName();
         switch (userToLogIn) {
             case CustomerUser customerUser -> {
-                return createResponse(true, "Logged in as customer");
+                PushBus.subscribe(customerUser.getUserName(), connection);
+                return createResponse(ResponseType.LOGIN, true, "Logged in as customer");
             }
             case DeliveryUser deliveryUser -> {
-                return createResponse(true, "Logged in as delivery");
+                PushBus.subscribeCourier(deliveryUser.getUserName(), connection);
+                return createResponse(ResponseType.LOGIN, true, "Logged in as delivery");
             }
             case RestaurantUser restaurantUser -> {
-                ServerApp.addLoggedInRestaurant(restaurantUser, clientSocket);
-                return createResponse(true, "Logged in as restaurant");
+                PushBus.subscribe(restaurantUser.getUserName(), connection);
+                ServerApp.addLoggedInRestaurant(restaurantUser, connection);
+                return createResponse(ResponseType.LOGIN, true, "Logged in as restaurant");
             }
             default -> {
-                return createResponse(false, "Invalid username or password");
+                return createResponse(ResponseType.LOGIN, false, "Invalid username or password");
             }
         }
     }
 
     // Handle a sign-up request from a customer
-    private String handleSignUp(Map<String,String> params, String type) throws IOException{
+    private Response handleSignUp(Request params, String type) throws IOException{
         String username = params.get("username");
         String email = params.get("email");
         String address = params.get("address");
@@ -376,40 +499,40 @@ public class ClientHandler implements Runnable {
         String password = params.get("password");
 
         if (usernameExists(username)) {
-            return createResponse(false, "Username already exists");
+            return createResponse(ResponseType.SIGN_UP, false, "Username already exists");
         }
 
         if (emailExists(email)) {
-            return createResponse(false, "Email already exists");
+            return createResponse(ResponseType.SIGN_UP, false, "Email already exists");
         }
 
         if (!geoLocationService.validateAddress(address)) {
-            return createResponse(false, "Invalid address");
+            return createResponse(ResponseType.SIGN_UP, false, "Invalid address");
         }
 
         if (!containsOnlyLettersAndNumbers(username)) {
-            return createResponse(false, "Username must contain only letters");
+            return createResponse(ResponseType.SIGN_UP, false, "Username must contain only letters");
         }
 
         if (phoneNumber.length() != 10) {
-            return createResponse(false, "Phone number must be 10 digits long");
+            return createResponse(ResponseType.SIGN_UP, false, "Phone number must be 10 digits long");
         }
 
         if (password.length() < 8) {
-            return createResponse(false, "Password must be at least 8 characters long");
+            return createResponse(ResponseType.SIGN_UP, false, "Password must be at least 8 characters long");
         }
 
         return switch (type) {
             case "customer" -> handleSignupCustomer(params);
             case "delivery" -> handleSignupDelivery(params);
             case "restaurant" -> handleSignupRestaurant(params);
-            default -> createResponse(false, "Invalid user type");
+            default -> createResponse(ResponseType.SIGN_UP, false, "Invalid user type");
         };
 
     }
 
     // Create a new customer and add to the list of all users
-    private String handleSignupCustomer(Map<String, String> params) throws IOException {
+    private Response handleSignupCustomer(Request params) throws IOException {
         String username = params.get("username");
         String password = params.get("password");
         String address = params.get("address");
@@ -419,11 +542,11 @@ public class ClientHandler implements Runnable {
         CustomerUser newUser = new CustomerUser(username, hashPassword(password), address, phoneNumber, email);
         ServerApp.addUser(newUser);
 
-        return createResponse(true, "Customer signup successful");
+        return createResponse(ResponseType.SIGNUP_CUSTOMER, true, "Customer signup successful");
     }
 
     // Handles signup for a delivery user
-    private String handleSignupDelivery(Map<String, String> params) throws IOException {
+    private Response handleSignupDelivery(Request params) throws IOException {
         String username = params.get("username");
         String password = params.get("password");
         String address = params.get("address");
@@ -432,18 +555,18 @@ public class ClientHandler implements Runnable {
         String Token = params.get("token");
 
         if (!checkToken(Token)) {
-            return createResponse(false, "Not authorized to create a delivery account");
+            return createResponse(ResponseType.SIGNUP_DELIVERY, false, "Not authorized to create a delivery account");
         }
 
         // Create a new delivery user and add to server
         DeliveryUser newUser = new DeliveryUser(username, hashPassword(password), address, phoneNumber, email);
         ServerApp.addUser(newUser);
 
-        return createResponse(true, "Customer signup successful");
+        return createResponse(ResponseType.SIGNUP_DELIVERY, true, "Customer signup successful");
     }
 
     // Handles signup for a restaurant user
-    private String handleSignupRestaurant(Map<String, String> params) throws IOException {
+    private Response handleSignupRestaurant(Request params) throws IOException {
         String username = params.get("username");
         String password = params.get("password");
         String address = params.get("address");
@@ -456,146 +579,216 @@ public class ClientHandler implements Runnable {
         RestaurantUser newRestaurant = new RestaurantUser(username, hashPassword(password), address, phoneNumber, email, businessPhoneNumber, cuisine, 0.0);
         ServerApp.addUser(newRestaurant);
 
-        return createResponse(true, "Restaurant signup successful");
+        return createResponse(ResponseType.SIGNUP_RESTAURANT, true, "Restaurant signup successful");
     }
 
     // Handles retrieval of restaurants based on distance and cuisine
-    private String handleGetRestaurants(Map<String, String> params) throws IOException {
+    private Response handleGetRestaurants(Request params) throws IOException {
         User user = authenticateUser(params);
 
         if(user == null) {
-            return createResponse(false, "Authentication failed or user not found");
+            return createResponse(ResponseType.GET_RESTAURANTS, false, "Authentication failed or user not found");
         }
 
         // Get user's address for calculating distance
-        String maxDistanceStr = params.get("distance");
         String cuisine = params.get("cuisine");
 
         // Get customer coordinates
         double[] customerCoordinates = new double[2];
-        if (params.get("sendHome").equals("true")){
+        if (params.getBoolean("sendHome", false)){
             customerCoordinates = user.getCoordinates();
         } else {
             if (params.get("address") == null || params.get("address").isEmpty() || !geoLocationService.validateAddress(params.get("address"))) {
-                return createResponse(false, "Invalid address");
+                return createResponse(ResponseType.GET_RESTAURANTS, false, "Invalid address");
             }
             customerCoordinates = geoLocationService.getCoordinates(params.get("address"));
         }
         if (customerCoordinates == null) {
-            return createResponse(false, "Unable to determine customer location");
+            return createResponse(ResponseType.GET_RESTAURANTS, false, "Unable to determine customer location");
         }
 
         // Parse the max distance, defaulting to 30km if not provided
-        double maxDistance = (maxDistanceStr != null && !maxDistanceStr.isEmpty()) ? Double.parseDouble(maxDistanceStr) : 30.0;
-        System.out.println("Max distance: " + maxDistance);
+        double maxDistance = params.getDouble("distance", 30.0);
+        ServerLogger.debug("geo", "Max distance: " + maxDistance);
+        int limit = params.getInt("limit", 0); // 0 means no limit
 
-        // Prepare the list of restaurant information
+        // Prepare the list of restaurant information, nearest first
         List<Map<String, Object>> restaurantInfoList = new ArrayList<>();
 
-        for (RestaurantUser restaurant : ServerApp.getLoggedInRestaurants()) {
-            // Get the restaurant's coordinates
-            double[] restaurantCoordinates = restaurant.getCoordinates();
-            if (restaurantCoordinates != null) {
-                // Calculate the distance between customer and restaurant
-                double distance = geoLocationService.calculateDistance(
-                        customerCoordinates[0], customerCoordinates[1],
-                        restaurantCoordinates[0], restaurantCoordinates[1]);
-
-                // Filter restaurants by distance and cuisine
-                if (distance <= maxDistance &&
-                        (cuisine == null || cuisine.isEmpty() || restaurant.getCuisine().equalsIgnoreCase(cuisine) ||
-                        "all".equalsIgnoreCase(cuisine))) {
-
-                    // Prepare the restaurant info to be sent back to the client
-                    Map<String, Object> restaurantInfo = new HashMap<>();
-                    restaurantInfo.put("restaurantName", restaurant.getUserName());      // I know this looks weird, but it's saves a lot of time.
-                    restaurantInfo.put("restaurantActualName", restaurant.getRestaurantName());
-                    restaurantInfo.put("address", restaurant.getAddress());
-                    restaurantInfo.put("distance", String.format("%.2f", distance));
-                    restaurantInfo.put("cuisine", restaurant.getCuisine());
-                    restaurantInfo.put("phoneNumber", restaurant.getBusinessPhoneNumber());
-
-                    // Include profile picture URL if it exists
-                    if (restaurant.hasProfilePicture()) {
-                        String profilePictureUrl = "http://" + IMAGE_URL + "/profile_pictures/" + restaurant.getUserName() + ".jpg";
-                        restaurantInfo.put("profilePictureUrl", profilePictureUrl);
-                    } else {
-
-                        restaurantInfo.put("profilePictureUrl", null); // Null if no profile picture
-                    }
+        for (GeoGrid.Hit<RestaurantUser> hit : ServerApp.loggedInRestaurants.nearby(customerCoordinates[0], customerCoordinates[1], maxDistance, cuisine, limit)) {
+            RestaurantUser restaurant = hit.item();
+
+            // Prepare the restaurant info to be sent back to the client
+            Map<String, Object> restaurantInfo = new HashMap<>();
+            restaurantInfo.put("restaurantName", restaurant.getUserName());      // I know this looks weird, but it's saves a lot of time.
+            restaurantInfo.put("restaurantActualName", restaurant.getRestaurantName());
+            restaurantInfo.put("address", restaurant.getAddress());
+            restaurantInfo.put("distance", String.format("%.2f", hit.distanceKm()));
+            restaurantInfo.put("cuisine", restaurant.getCuisine());
+            restaurantInfo.put("phoneNumber", restaurant.getBusinessPhoneNumber());
+
+            // Include profile picture URL if it exists
+            if (restaurant.hasProfilePicture()) {
+                String profilePictureUrl = "http://" + IMAGE_URL + "/profile_pictures/" + restaurant.getUserName() + ".jpg";
+                restaurantInfo.put("profilePictureUrl", profilePictureUrl);
+            } else {
 
-                    restaurantInfoList.add(restaurantInfo);
-                }
+                restaurantInfo.put("profilePictureUrl", null); // Null if no profile picture
             }
+
+            restaurantInfoList.add(restaurantInfo);
         }
 
         // Return the list of restaurant info as JSON
-        return createResponse(true, gson.toJson(restaurantInfoList));
+        return createPayloadResponse(ResponseType.GET_RESTAURANTS, restaurantInfoList);
     }
 
 
     // Retrieves the address of a user by username
     private String getUserNameAddress(String username) {
-        for (User user : ServerApp.allUsers) {
-            if (user.getUserName().equals(username)) {
-                return user.getAddress();
-            }
-        }
-        return null;
+        User user = ServerApp.allUsers.get(username);
+        return user == null ? null : user.getAddress();
     }
 
-    // Retrieves the menu for a specific restaurant
-    private String handleGetMenu(Map<String, String> params) {
+    // Retrieves the menu for a specific restaurant from the menu cache.
+    // A client that sends the version it already has gets "Not modified" instead of the menu.
+    private Response handleGetMenu(Request params) {
         String restaurantName = params.get("restaurantName");
+        String knownVersion = params.get("version");
 
-        for (User user : ServerApp.allUsers) {
-            if (user instanceof RestaurantUser && user.getUserName().equals(restaurantName)) {
-                RestaurantUser restaurant = (RestaurantUser) user;
+        RestaurantUser restaurant = ServerApp.allUsers.get(restaurantName, RestaurantUser.class);
+        if (restaurant == null) {
+            return createResponse(ResponseType.GET_MENU, false, "Restaurant not found");
+        }
 
-                List<Map<String, Object>> menuItemsList = new ArrayList<>();
+        MenuCache.Entry menu = ServerApp.menuCache.get(restaurant, this::renderMenu);
+        String version = String.valueOf(menu.version());
+        if (version.equals(knownVersion)) {
+            return createResponse(ResponseType.GET_MENU, true, "Not modified").withField("menuVersion", version);
+        }
+        // Return the list of menu items as JSON
+        return Response.json(ResponseType.GET_MENU, menu.json()).withField("menuVersion", version);
+    }
 
-                for (Order.Item item : restaurant.getMenu()) {
-                    Map<String, Object> itemInfo = new HashMap<>();
-                    itemInfo.put("name", item.getName());
-                    itemInfo.put("description", item.getDescription());
-                    itemInfo.put("price", item.getPrice());
-                    itemInfo.put("available", item.isAvailable());
+    // Serialises the menu of a restaurant the way getMenu returns it, used to fill the menu cache
+    private String renderMenu(RestaurantUser restaurant) {
+        List<Map<String, Object>> menuItemsList = new ArrayList<>();
 
+        for (Order.Item item : restaurant.getMenu()) {
+            menuItemsList.add(menuItemInfo(restaurant, item));
+        }
+        return gson.toJson(menuItemsList);
+    }
 
-                    // Create a URL for the item image
-                    String itemImagePath = "menu_item_images/" + restaurant.getUserName() + "_" + item.getName().replace("'" , "") + ".jpg";
-                    File itemImageFile = new File(itemImagePath);
+    // Describes a menu item for the client, with the URL of its image if it has one
+    private Map<String, Object> menuItemInfo(RestaurantUser restaurant, Order.Item item) {
+        Map<String, Object> itemInfo = new HashMap<>();
+        itemInfo.put("name", item.getName());
+        itemInfo.put("description", item.getDescription());
+        itemInfo.put("price", item.getPrice());
+        itemInfo.put("available", item.isAvailable());
 
-                    if (itemImageFile.exists()) {
-                        // Assuming you have a method or base URL that constructs the correct URL for accessing images
-                        String imageUrl = "http://" + IMAGE_URL + "/" + itemImagePath;
-                        itemInfo.put("photoUrl", imageUrl.replace(" ", "%20"));
-                    } else {
-                        itemInfo.put("photoUrl", null); // Null if no image
-                    }
 
-                    menuItemsList.add(itemInfo);
+        // Create a URL for the item image
+        String itemImagePath = "menu_item_images/" + restaurant.getUserName() + "_" + item.getName().replace("'" , "") + ".jpg";
+        File itemImageFile = new File(itemImagePath);
+
+        if (itemImageFile.exists()) {
+            // Assuming you have a method or base URL that constructs the correct URL for accessing images
+            String imageUrl = "http://" + IMAGE_URL + "/" + itemImagePath;
+            itemInfo.put("photoUrl", imageUrl.replace(" ", "%20"));
+        } else {
+            itemInfo.put("photoUrl", null); // Null if no image
+        }
+        return itemInfo;
+    }
+
+    // Searches the menu items of all open restaurants, optionally by cuisine, price, availability and distance
+    private Response handleSearchItems(Request params) throws IOException {
+        User user = authenticateUser(params);
+        if (user == null) {
+            return createResponse(ResponseType.SEARCH_ITEMS, false, "Authentication failed or user not found");
+        }
+        String query = params.get("query");
+        String cuisine = params.get("cuisine");
+        boolean availableOnly = params.getBoolean("availableOnly", false);
+
+        // The optional numeric filters, validated with the request
+        double minPrice = params.getDouble("minPrice", 0);
+        double maxPrice = params.getDouble("maxPrice", Double.MAX_VALUE);
+        double maxDistance = params.getDouble("distance", 0);
+        int limit = params.getInt("limit", 0); // 0 means no limit
+
+        // With a distance, only the restaurants within it are searched
+        Map<String, Double> distances = null;
+        if (params.has("distance")) {
+            double[] customerCoordinates;
+            if (params.getBoolean("sendHome", false)) {
+                customerCoordinates = user.getCoordinates();
+            } else {
+                if (params.get("address") == null || params.get("address").isEmpty() || !geoLocationService.validateAddress(params.get("address"))) {
+                    return createResponse(ResponseType.SEARCH_ITEMS, false, "Invalid address");
                 }
+                customerCoordinates = geoLocationService.getCoordinates(params.get("address"));
+            }
+            if (customerCoordinates == null) {
+                return createResponse(ResponseType.SEARCH_ITEMS, false, "Unable to determine customer location");
+            }
+            distances = new HashMap<>();
+            for (GeoGrid.Hit<RestaurantUser> hit : ServerApp.loggedInRestaurants.nearby(customerCoordinates[0], customerCoordinates[1], maxDistance, null, 0)) {
+                distances.put(hit.item().getUserName(), hit.distanceKm());
+            }
+        }
 
-                // Return the list of menu items as JSON
-                return createResponse(true, gson.toJson(menuItemsList));
+        MenuIndex.Result result = ServerApp.loggedInRestaurants.getMenuIndex().search(query, cuisine, minPrice, maxPrice, availableOnly,
+                distances == null ? null : distances.keySet(), distances == null ? limit : 0);
+        List<MenuIndex.Entry> entries = result.items();
+        if (distances != null) {
+            // Nearest restaurants first, name matches first within a restaurant (the sort is stable)
+            Map<String, Double> distanceOf = distances;
+            entries.sort(Comparator.comparingDouble(entry -> distanceOf.get(entry.getRestaurant().getUserName())));
+            if (limit > 0 && entries.size() > limit) {
+                entries = entries.subList(0, limit);
             }
         }
 
-        return createResponse(false, "Restaurant not found");
+        List<Map<String, Object>> itemsList = new ArrayList<>();
+        for (MenuIndex.Entry entry : entries) {
+            RestaurantUser restaurant = entry.getRestaurant();
+            Map<String, Object> itemInfo = menuItemInfo(restaurant, entry.getItem());
+            itemInfo.put("restaurantName", restaurant.getUserName());
+            itemInfo.put("restaurantActualName", restaurant.getRestaurantName());
+            itemInfo.put("cuisine", restaurant.getCuisine());
+            if (distances != null) {
+                itemInfo.put("distance", String.format("%.2f", distances.get(restaurant.getUserName())));
+            }
+            itemsList.add(itemInfo);
+        }
+
+        Map<String, Object> availability = new LinkedHashMap<>();
+        availability.put("available", result.available());
+        availability.put("unavailable", result.unavailable());
+        Map<String, Object> facets = new LinkedHashMap<>();
+        facets.put("cuisine", result.cuisines());
+        facets.put("availability", availability);
+        Map<String, Object> payload = new LinkedHashMap<>();
+        payload.put("items", itemsList);
+        payload.put("total", result.total());
+        payload.put("facets", facets);
+        return createPayloadResponse(ResponseType.SEARCH_ITEMS, payload);
     }
 
     private final CreditCardAuthenticator creditCardAuthenticator = new CreditCardAuthenticator(); // Initialize the mock authenticator
 
     // Places a new order
-    private String handlePlaceOrder(Map<String, String> params) throws IOException {
+    private Response handlePlaceOrder(Request params) throws IOException {
         String username = params.get("username");
         String password = params.get("password");
         String restaurantName = params.get("restaurantName");
-        Object items = params.get("items");
+        List<Order.Item> itemsList = params.getItems();
         String customerNote = params.get("customerNote");
-        String status = "Pending"; // Default status
-        boolean isSendHome = params.get("sendHome").equalsIgnoreCase("true");
+        String status = OrderStatus.PENDING.getLabel(); // Default status
+        boolean isSendHome = params.getBoolean("sendHome", false);
         String address = params.get("address");
 
         CustomerUser customer = (CustomerUser) authenticateUser(params);
@@ -607,7 +800,11 @@ public class ClientHandler implements Runnable {
         }
 
         if (customer == null) {
-            return createResponse(false, "Authentication failed or customer not found");
+            return createResponse(ResponseType.PLACE_ORDER, false, "Authentication failed or customer not found");
+        }
+
+        if (itemsList == null || itemsList.isEmpty()) {
+            return createResponse(ResponseType.PLACE_ORDER, false, "No items in order");
         }
 
         // Handle credit card information
@@ -615,7 +812,7 @@ public class ClientHandler implements Runnable {
         String expirationDate;
         String cvv;
 
-        if (params.get("useSavedCard").equals("false")) {
+        if (!params.getBoolean("useSavedCard", true)) {
             creditCardNumber = params.get("creditCardNumber");
             expirationDate = params.get("expirationDate");
             cvv = params.get("cvv");
@@ -626,39 +823,30 @@ public class ClientHandler implements Runnable {
         }
 
         // Find the restaurant
-        RestaurantUser restaurant = null;
-        for (RestaurantUser loggedInRestaurant : ServerApp.getLoggedInRestaurants()) {
-            if (loggedInRestaurant.getUserName().equals(restaurantName)) {
-                restaurant = loggedInRestaurant;
-                break;
-            }
-        }
+        RestaurantUser restaurant = ServerApp.loggedInRestaurants.get(restaurantName);
         if (restaurant == null) {
-            return createResponse(false, "Restaurant not logged in or does not exist");
+            return createResponse(ResponseType.PLACE_ORDER, false, "Restaurant not logged in or does not exist");
         }
 
         // Authenticate credit card
         if (!creditCardAuthenticator.authenticate(creditCardNumber, expirationDate, cvv)) {
-            return createResponse(false, "Credit card authentication failed");
+            return createResponse(ResponseType.PLACE_ORDER, false, "Credit card authentication failed");
         }
 
         // Validate address
         if(!geoLocationService.validateAddress(address)){
-            return createResponse(false, "Invalid address");
+            return createResponse(ResponseType.PLACE_ORDER, false, "Invalid address");
         }
 
-        System.out.println("Address: " + address);
-        System.out.println("Restaurant Address: " + restaurant.getAddress());
+        ServerLogger.debug("order", "Address: " + address + ", restaurant address: " + restaurant.getAddress());
 
         // Check distance between customer and restaurant
         if(!GeoLocationService.checkSmallDistance(address, restaurant.getAddress(), 30.1)){
-            return createResponse(false, "Restaurant is too far away");
+            return createResponse(ResponseType.PLACE_ORDER, false, "Restaurant is too far away");
         }
 
         // Create and save the order
-        int orderId = incrementOrderId();
-        // Properly handling the JSON parsing
-        List<Order.Item> itemsList = (ArrayList<Order.Item>) gson.fromJson(gson.toJson(items), new TypeToken<List<Order.Item>>(){}.getType());
+        int orderId = ServerApp.orderIds.next();
         Order order = new Order(orderId, new Date(), itemsList, customer.getUserName(), restaurantName, status, customerNote, address, restaurant.getAddress());
 
         // make payment
@@ -667,49 +855,35 @@ public class ClientHandler implements Runnable {
             total += item.getPrice() * item.getQuantity();
         }
         if (!creditCardAuthenticator.makePayment(creditCardNumber, expirationDate, cvv, total)) {
-            return createResponse(false, "Payment failed");
+            return createResponse(ResponseType.PLACE_ORDER, false, "Payment failed");
         }
 
         order.setTotal(total);
 
-        customer.addOrder(order);
-        restaurant.addOrder(order);
-
-        ServerApp.updateOrder(order);
-
+        // Saving also notifies the restaurant and the customer and adds the order to the customer's orders
         if (!ServerApp.saveOrder(order)) {
-            return createResponse(false, "Failed to save order");
+            return createResponse(ResponseType.PLACE_ORDER, false, "Failed to save order");
         }
-
-        // Notify the restaurant
-        ServerApp.pushUpdateToRestaurant(restaurant, "New order received");
-        return createResponse(true, "Order placed successfully with ID: " + orderId);
+        restaurant.addOrder(order); // Only once saved, a failed save leaves no order behind
+        return createResponse(ResponseType.PLACE_ORDER, true, "Order placed successfully with ID: " + orderId);
     }
 
     // Updates or removes a menu item for a restaurant
-    private String handleUpdateMenu(Map<String, String> params) throws IOException {
+    private Response handleUpdateMenu(Request params) throws IOException {
         String itemName = params.get("itemName");
-        boolean isAvailable = true;
-        try{
-            isAvailable = params.get("isAvailable").equalsIgnoreCase("true");
-        }catch (Exception e){
-            isAvailable = true;
-        }
+        boolean isAvailable = params.getBoolean("isAvailable", true);
         boolean isRemove = params.get("action").equalsIgnoreCase("remove");
-        double price = 0.0;
-        String description = null;
-        String encodedImage = null;
 
         // Authenticate the restaurant
         RestaurantUser restaurant = (RestaurantUser) authenticateUser(params);
 
         if (restaurant == null) {
-            return createResponse(false, "Authentication failed or restaurant not found");
+            return createResponse(ResponseType.UPDATE_MENU, false, "Authentication failed or restaurant not found");
         }
 
         // Check if the restaurant is logged in
         if (!ServerApp.isLogged(restaurant)) {
-            return createResponse(false, "Restaurant not logged in");
+            return createResponse(ResponseType.UPDATE_MENU, false, "Restaurant not logged in");
         }
 
         // Find the existing item in the menu, if it exists
@@ -726,29 +900,27 @@ public class ClientHandler implements Runnable {
             if (existingItem != null) {
                 restaurant.removeMenuItem(existingItem.getName());
                 ServerApp.saveMenu(restaurant);
-                return createResponse(true, "Menu item removed successfully");
+                return createResponse(ResponseType.UPDATE_MENU, true, "Menu item removed successfully");
             } else {
-                return createResponse(false, "Menu item not found");
+                return createResponse(ResponseType.UPDATE_MENU, false, "Menu item not found");
             }
         } else {
-            // Handle add/update action
-            try {
-                price = Double.parseDouble(params.get("price"));
-                description = params.get("description");
-                encodedImage = params.get("image");
-            } catch (NumberFormatException e) {
-                return createResponse(false, "Invalid price format");
+            // Handle add/update action, the price is only required here
+            if (!params.has("price")) {
+                return createResponse(ResponseType.UPDATE_MENU, false, "Missing price");
             }
+            double price = params.getDouble("price", 0.0);
+            String description = params.get("description");
 
-            // Decode the Base64 image if provided
+            // Take the image from the frame attachment or decode it from Base64
+            byte[] imageBytes;
+            try {
+                imageBytes = params.getBinary("image");
+            } catch (IllegalArgumentException e) {
+                return createResponse(ResponseType.UPDATE_MENU, false, "Invalid image format");
+            }
             String photoUrl = null;
-            if (encodedImage != null && !encodedImage.isEmpty()) {
-                byte[] imageBytes;
-                try {
-                    imageBytes = Base64.getDecoder().decode(encodedImage);
-                } catch (IllegalArgumentException e) {
-                    return createResponse(false, "Invalid image format");
-                }
+            if (imageBytes != null) {
 
                 // Ensure the directory exists
                 File directory = new File("menu_item_images");
@@ -776,12 +948,12 @@ public class ClientHandler implements Runnable {
 
             // Save the updated menu
             ServerApp.saveMenu(restaurant);
-            return createResponse(true, "Menu item added/updated successfully");
+            return createResponse(ResponseType.UPDATE_MENU, true, "Menu item added/updated successfully");
         }
     }
 
     // Updates a customers credit card information
-    private String handleUpdateCreditCard(Map<String, String> params) {
+    private Response handleUpdateCreditCard(Request params) {
         // Extract parameters
         String creditCardNumber = params.get("creditCardNumber");
         String expirationDate = params.get("expirationDate");
@@ -791,11 +963,11 @@ public class ClientHandler implements Runnable {
         CustomerUser customer = (CustomerUser) authenticateUser(params);
 
         if (customer == null) {
-            return createResponse(false, "Authentication failed or customer not found");
+            return createResponse(ResponseType.UPDATE_CREDIT_CARD, false, "Authentication failed or customer not found");
         }
 
         if (!creditCardAuthenticator.authenticate(creditCardNumber, expirationDate, cvv)) {
-            return createResponse(false, "Credit card authentication failed");
+            return createResponse(ResponseType.UPDATE_CREDIT_CARD, false, "Credit card authentication failed");
         }
 
         // Update credit card details
@@ -803,79 +975,72 @@ public class ClientHandler implements Runnable {
         customer.setExpirationDate(expirationDate);
         customer.setCvv(cvv);
 
-        return createResponse(true, "Credit card updated successfully");
+        return createResponse(ResponseType.UPDATE_CREDIT_CARD, true, "Credit card updated successfully");
     }
 
     // Retrieves the order history for a user
-    private String handleGetOrdersHistory(Map<String, String> params) {
+    private Response handleGetOrdersHistory(Request params) {
         User authenticatedUser = authenticateUser(params);
         return switch (authenticatedUser) {
-            case null -> createResponse(false, "Authentication failed or user not found");
-            case CustomerUser customerUser -> createResponse(true, gson.toJson(customerUser.getOrderHistory()));
-            case RestaurantUser restaurantUser -> createResponse(true, gson.toJson(restaurantUser.getOrders()));
-            case DeliveryUser deliveryUser -> createResponse(true, gson.toJson(deliveryUser.getCurrentOrder()));
-            default -> createResponse(false, "User type not recognized");
+            case null -> createResponse(ResponseType.GET_ORDERS_HISTORY, false, "Authentication failed or user not found");
+            case CustomerUser customerUser -> createPayloadResponse(ResponseType.GET_ORDERS_HISTORY, ServerApp.orders.getByCustomer(customerUser.getUserName()));
+            case RestaurantUser restaurantUser -> createPayloadResponse(ResponseType.GET_ORDERS_HISTORY, ServerApp.orders.getByRestaurant(restaurantUser.getUserName(), OrderStatus.PENDING));
+            case DeliveryUser deliveryUser -> createPayloadResponse(ResponseType.GET_ORDERS_HISTORY, deliveryUser.getCurrentOrder());
+            default -> createResponse(ResponseType.GET_ORDERS_HISTORY, false, "User type not recognized");
         };
     }
 
     // Marks an order as ready for pickup and updates the status in the system
-    private String handleMarkOrderReadyForPickup(Map<String, String> params) throws IOException {
-        Type type = new TypeToken<Order>(){}.getType();
-        Order order_from_user = gson.fromJson(params.get("order"), type);
+    private Response handleMarkOrderReadyForPickup(Request params) throws IOException {
+        Order order_from_user = params.getOrder();
+        if (order_from_user == null) {
+            return createResponse(ResponseType.MARK_ORDER_READY_FOR_PICKUP, false, "No order provided");
+        }
         int orderId = order_from_user.getOrderId();
         Order order = ServerApp.getOrderById(orderId);
 
         // Check if the order exists
         if (order == null) {
-            return createResponse(false, "Order not found");
+            return createResponse(ResponseType.MARK_ORDER_READY_FOR_PICKUP, false, "Order not found");
         }
 
         // Authenticate the restaurant user
         RestaurantUser restaurant =  (RestaurantUser) authenticateUser(params);
         if(restaurant == null) {
-            return createResponse(false, "Authentication failed or restaurant not found");
+            return createResponse(ResponseType.MARK_ORDER_READY_FOR_PICKUP, false, "Authentication failed or restaurant not found");
         }
 
-        // Update the order status and remove it from the restaurant's orders
-        order.setStatus("Ready For Pickup");
-        restaurant.removeOrder(order.getOrderId());
-        // Update the customer's order history
+        // The customer's order history is updated with the order
         CustomerUser customer = getUserByUsername(order.getCustomerName());
         if (customer == null) {
-            return createResponse(false, "Something went horribly wrong");
-        }
-        customer.removeOrder(order.getOrderId());
-        customer.addOrder(order);
-        // Save changes for the restaurant, customer, and order
-        ServerApp.updateUser(restaurant);
-        ServerApp.updateUser(customer);
-        ServerApp.updateOrder(order);
-        // Return success or failure response
-        if (ServerApp.updateOrder(order)) {
-            return createResponse(true, "Order status updated successfully");
-        } else {
-            return createResponse(false, "Failed to update order status");
+            return createResponse(ResponseType.MARK_ORDER_READY_FOR_PICKUP, false, "Something went horribly wrong");
+        }
+
+        // Update the order status and save it, a change that cannot be saved is reverted
+        if (!ServerApp.orders.transition(order, OrderStatus.PENDING, OrderStatus.READY_FOR_PICKUP)) {
+            return createResponse(ResponseType.MARK_ORDER_READY_FOR_PICKUP, false, "Order is not pending");
+        }
+        if (!ServerApp.updateOrder(order, OrderStatus.PENDING, OrderStatus.READY_FOR_PICKUP, null)) {
+            return createResponse(ResponseType.MARK_ORDER_READY_FOR_PICKUP, false, "Failed to update order status");
         }
+        // Remove it from the restaurant's orders, the restaurant's and customer's order lists are rebuilt from the journal on startup
+        restaurant.removeOrder(order.getOrderId());
+        return createResponse(ResponseType.MARK_ORDER_READY_FOR_PICKUP, true, "Order status updated successfully");
 
     }
 
     // Retrieves a CustomerUser object based on username
     private CustomerUser getUserByUsername(String customerName) {
-        for (User user : ServerApp.allUsers) {
-            if (user instanceof CustomerUser && user.getUserName().equals(customerName)) {
-                return (CustomerUser) user;
-            }
-        }
-        return null;
+        return ServerApp.allUsers.get(customerName, CustomerUser.class);
     }
 
     // Disables a menu item for a restaurant
-    private String handleDisableMenuItems(Map<String, String> params) {
+    private Response handleDisableMenuItems(Request params) {
         // Authenticate the restaurant user
         RestaurantUser restaurant = (RestaurantUser) authenticateUser(params);
 
         if (restaurant == null) {
-            return createResponse(false, "Authentication failed or restaurant not found");
+            return createResponse(ResponseType.DISABLE_MENU_ITEMS, false, "Authentication failed or restaurant not found");
         }
         // Disable the menu item
         String menuItemName = params.get("menuItemName");
@@ -885,103 +1050,107 @@ public class ClientHandler implements Runnable {
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
-        return createResponse(true, "Menu items disabled");
+        return createResponse(ResponseType.DISABLE_MENU_ITEMS, true, "Menu items disabled");
     }
 
     // Enables a menu item for a restaurant
-    private String handleEnableMenuItems(Map<String, String> params) {
+    private Response handleEnableMenuItems(Request params) {
         // Authenticate the restaurant user
         RestaurantUser restaurant = (RestaurantUser) authenticateUser(params);
         if (restaurant == null) {
-            return createResponse(false, "Authentication failed or restaurant not found");
+            return createResponse(ResponseType.ENABLE_MENU_ITEMS, false, "Authentication failed or restaurant not found");
         }
         // Enable the menu item
         String menuItemName = params.get("menuItemName");
         restaurant.enableMenuItem(menuItemName);
-        return createResponse(true, "Menu items enabled");
+        ServerApp.loggedInRestaurants.menuChanged(restaurant);
+        ServerApp.menuCache.invalidate(restaurant.getUserName());
+        return createResponse(ResponseType.ENABLE_MENU_ITEMS, true, "Menu items enabled");
     }
 
     // Retrieves the current orders for a restaurant
-    private String handleGetCurrentOrders(Map<String, String> params) {
+    private Response handleGetCurrentOrders(Request params) {
         // Authenticate the restaurant user
         RestaurantUser restaurant = (RestaurantUser) authenticateUser(params);
 
         if (restaurant == null) {
-            return createResponse(false, "Authentication failed or restaurant not found");
+            return createResponse(ResponseType.GET_CURRENT_ORDERS, false, "Authentication failed or restaurant not found");
         }
         // Return current orders as JSON
-        return gson.toJson(restaurant.getCurrentOrders());
+        return createPayloadResponse(ResponseType.GET_CURRENT_ORDERS, ServerApp.orders.getByRestaurant(restaurant.getUserName(), OrderStatus.PENDING));
     }
 
     // Handles user disconnection
-    private String handleDisconnect(Map<String, String> params) {
+    private Response handleDisconnect(Request params) {
         // Authenticate the user
         User userToDisconnect = authenticateUser(params);
         // Handle restaurant user logout
         if (userToDisconnect == null) {
-            return createResponse(false, "Authentication failed or user not found");
+            return createResponse(ResponseType.DISCONNECT, false, "Authentication failed or user not found");
         }
 
+        PushBus.unsubscribe(userToDisconnect.getUserName(), connection);
+        SessionTokens.revoke(params.get("sessionToken"));
+        sessionUser = null;
         if (userToDisconnect instanceof RestaurantUser) {
             ServerApp.logoutRestaurant((RestaurantUser) userToDisconnect);
-            System.out.println("Restaurant " + userToDisconnect.getUserName() + " has been logged out.");
+            ServerLogger.info("session", "Restaurant " + userToDisconnect.getUserName() + " has been logged out.");
         }
 
-        return createResponse(true, "Disconnected successfully");
+        return createResponse(ResponseType.DISCONNECT, true, "Disconnected successfully");
     }
 
 
     // Retrieves available cuisines
-    private String handleGetAvailableCuisines() {
-        return createResponse(true, ServerApp.getAvailableCuisines());
+    private Response handleGetAvailableCuisines() {
+        return createResponse(ResponseType.GET_AVAILABLE_CUISINES, true, ServerApp.getAvailableCuisines());
     }
 
     // Changes a user's password
-    private String handleChangePassword(Map<String, String> params) throws IOException {
+    private Response handleChangePassword(Request params) throws IOException {
         String newPassword = params.get("newPassword");
         params.put("password", params.get("oldPassword"));
-        // Authenticate the user
-        User user = authenticateUser(params);
+        // Authenticate the user, a session token is not enough to change the password
+        User user = authenticateWithPassword(params);
 
         if (user == null) {
-            return createResponse(false, "Authentication failed or user not found");
+            return createResponse(ResponseType.CHANGE_PASSWORD, false, "Authentication failed or user not found");
         }
         // Update password
         user.setHashedPassword(hashPassword(newPassword));
         ServerApp.updateUser(user);
+        SessionTokens.revokeAll(user.getUserName(), params.get("sessionToken")); // Log out the user's other sessions
 
-        return createResponse(true, "Password changed successfully");
+        return createResponse(ResponseType.CHANGE_PASSWORD, true, "Password changed successfully");
     }
 
     // Changes a user's email address
-    private String handleChangeEmail(Map<String, String> params) throws IOException {
+    private Response handleChangeEmail(Request params) throws IOException {
         String newEmail = params.get("newEmail");
         // Authenticate the user
         User user = authenticateUser(params);
 
         if (user == null) {
-            return createResponse(false, "Authentication failed or user not found");
+            return createResponse(ResponseType.CHANGE_EMAIL, false, "Authentication failed or user not found");
         }
         // Update email
-        user.setEmail(newEmail);
+        ServerApp.allUsers.changeEmail(user, newEmail);
         ServerApp.updateUser(user);
 
-        return createResponse(true, "Email changed successfully");
+        return createResponse(ResponseType.CHANGE_EMAIL, true, "Email changed successfully");
     }
 
     // Uploads and saves a user's profile picture
-    private String handleProfilePictureUpload(Map<String, String> params) {
-        String username = params.get("username");
-        String encodedImage = params.get("profilePicture");
-        // Authenticate the user
+    private Response handleProfilePictureUpload(Request params) {
+        // Authenticate the user, a token-only request carries no username
         User user = authenticateUser(params);
 
         try {
-            if (user instanceof RestaurantUser && user.getUserName().equals(username)) {
-                if (encodedImage != null) {
-                    // Decode the Base64 image
-                    byte[] imageBytes = Base64.getDecoder().decode(encodedImage);
-
+            if (user instanceof RestaurantUser) {
+                String username = user.getUserName();
+                // Take the image from the frame attachment or decode it from Base64
+                byte[] imageBytes = params.getBinary("profilePicture");
+                if (imageBytes != null) {
                     // Save the image in the restaurant's profile picture attribute
                     ((RestaurantUser) user).setProfilePicture(imageBytes);
 
@@ -992,19 +1161,19 @@ public class ClientHandler implements Runnable {
                     }
                     // Update user data
                     ServerApp.updateUser(user);  // Save updated user data
-                    return createResponse(true, "Profile picture uploaded successfully");
+                    return createResponse(ResponseType.PROFILE_PICTURE_UPLOAD, true, "Profile picture uploaded successfully");
                 } else {
-                    return createResponse(false, "No profile picture provided");
+                    return createResponse(ResponseType.PROFILE_PICTURE_UPLOAD, false, "No profile picture provided");
                 }
             }
-            return createResponse(false, "User not found");
+            return createResponse(ResponseType.PROFILE_PICTURE_UPLOAD, false, "User not found");
         } catch (IOException e) {
-            return createResponse(false, "Failed to save profile picture: " + e.getMessage());
+            return createResponse(ResponseType.PROFILE_PICTURE_UPLOAD, false, "Failed to save profile picture: " + e.getMessage());
         }
     }
 
     // Retrieves an image file from the server
-    private String handleGetImage(Map<String, String> params) {
+    private Response handleGetImage(Request params) {
         String imagePath = params.get("imagePath"); // The path sent by the client, e.g., "profile_pictures/restaurant_name.jpg"
 
         File imageFile = new File(imagePath);
@@ -1012,249 +1181,256 @@ public class ClientHandler implements Runnable {
             try {
                 byte[] imageBytes = Files.readAllBytes(imageFile.toPath());
 
-                // Create the response map
-                Map<String, Object> response = new HashMap<>();
-                response.put("success", true);
-                response.put("message", "Image retrieved successfully");
-                response.put("imageData", Base64.getEncoder().encodeToString(imageBytes)); // Encode image bytes to Base64
-
-                // Convert the response to JSON and return it
-                return gson.toJson(response);
+                // Line clients get the bytes Base64 encoded in "imageData", frame clients get them raw
+                return createResponse(ResponseType.GET_IMAGE, true, "Image retrieved successfully")
+                        .withAttachment("imageData", imageBytes);
 
             } catch (IOException e) {
                 // Return an error response if there is an issue reading the image
-                Map<String, String> errorResponse = new HashMap<>();
-                errorResponse.put("success", "false");
-                errorResponse.put("message", "Error reading image: " + e.getMessage());
-
-                return gson.toJson(errorResponse);
+                return createResponse(ResponseType.GET_IMAGE, false, "Error reading image: " + e.getMessage());
             }
         } else {
             // Return an error response if the image file doesn't exist
-            Map<String, String> errorResponse = new HashMap<>();
-            errorResponse.put("success", "false");
-            errorResponse.put("message", "Image not found");
-
-            return gson.toJson(errorResponse);
+            return createResponse(ResponseType.GET_IMAGE, false, "Image not found");
         }
     }
+
     // Deletes a user's account
-    private String handleDeleteAccount(Map<String, String> request) {
+    private Response handleDeleteAccount(Request request) {
         // Authenticate the user
         User user = authenticateUser(request);
 
         if (user == null) {
-            return createResponse(false, "Authentication failed or user not found");
+            return createResponse(ResponseType.DELETE_ACCOUNT, false, "Authentication failed or user not found");
+        }
+        // A session token is not enough to delete the account, the current password must be sent as well
+        if (!provesPassword(request, user)) {
+            return createResponse(ResponseType.DELETE_ACCOUNT, false, "The current password is required to delete the account");
         }
         // Remove the user from the server
         ServerApp.removeUser(user);
+        SessionTokens.revokeAll(user.getUserName(), null);
 
-        return createResponse(true, "Account deleted successfully");
+        return createResponse(ResponseType.DELETE_ACCOUNT, true, "Account deleted successfully");
     }
 
     // Updates a specific user parameter based on request
-    private String handleUpdateParameter(Map<String, String> request) throws IOException {
+    private Response handleUpdateParameter(Request request) throws IOException {
         String parameter = request.get("parameter");
         String value = request.get("newValue");
         // Authenticate the user
         User user = authenticateUser(request);
 
         if (user == null) {
-            return createResponse(false, "Authentication failed or user not found");
+            return createResponse(ResponseType.UPDATE_PARAMETER, false, "Authentication failed or user not found");
         }
         // Update the specified parameter
         switch (parameter) {
-            case "address" -> user.setAddress(value);
+            case "address" -> {
+                user.setAddress(value);
+                if (user instanceof RestaurantUser restaurantUser) {
+                    ServerApp.loggedInRestaurants.relocate(restaurantUser); // Move it in the discovery grids
+                }
+            }
             case "phoneNumber" -> user.setPhoneNumber(value);
-            case "email" -> user.setEmail(value);
+            case "email" -> ServerApp.allUsers.changeEmail(user, value);
             case "businessPhoneNumber" -> {
                 if (user instanceof RestaurantUser) {
                     ((RestaurantUser) user).setBusinessPhoneNumber(value);
                 } else {
-                    return createResponse(false, "User is not a restaurant");
+                    return createResponse(ResponseType.UPDATE_PARAMETER, false, "User is not a restaurant");
                 }
             }
             case "cuisine" -> {
                 if (user instanceof RestaurantUser) {
                     ((RestaurantUser) user).setCuisine(value);
+                    ServerApp.loggedInRestaurants.relocate((RestaurantUser) user);
                 } else {
-                    return createResponse(false, "User is not a restaurant");
+                    return createResponse(ResponseType.UPDATE_PARAMETER, false, "User is not a restaurant");
                 }
             }
             case "RestaurantName" -> {
                 if (user instanceof RestaurantUser) {
                     ((RestaurantUser) user).setRestaurantName(value);
                 } else {
-                    return createResponse(false, "User is not a restaurant");
+                    return createResponse(ResponseType.UPDATE_PARAMETER, false, "User is not a restaurant");
+                }
+            }
+            case "password" -> {
+                // A session token is not enough to change the password, the current one must be sent as well
+                if (!provesPassword(request, user)) {
+                    return createResponse(ResponseType.UPDATE_PARAMETER, false, "The current password is required to change the password");
                 }
+                user.setHashedPassword(hashPassword(value));
+                SessionTokens.revokeAll(user.getUserName(), request.get("sessionToken"));
             }
-            case "password" -> user.setHashedPassword(hashPassword(value));
             default -> {
-                return createResponse(false, "Invalid parameter");
+                return createResponse(ResponseType.UPDATE_PARAMETER, false, "Invalid parameter");
             }
         }
         // Save updated user data
         ServerApp.updateUser(user);
 
-        return createResponse(true, "Parameter updated successfully");
+        return createResponse(ResponseType.UPDATE_PARAMETER, true, "Parameter updated successfully");
     }
 
     // Retrieves income data for a delivery user
-    private String handleGetIncomeData(Map<String, String> request) {
+    private Response handleGetIncomeData(Request request) {
         String username = request.get("username");
         String password = request.get("password");
         // Authenticate the delivery user
         DeliveryUser deliveryUser = (DeliveryUser) authenticateUser(request);
         if (deliveryUser == null) {
-            return createResponse(false, "Authentication failed or delivery user not found");
+            return createResponse(ResponseType.GET_INCOME_DATA, false, "Authentication failed or delivery user not found");
         }
         // Return income data as JSON
-        return createResponse(true, gson.toJson(deliveryUser.getIncome()));
+        return createPayloadResponse(ResponseType.GET_INCOME_DATA, deliveryUser.getIncome());
     }
 
 
     // Marks an order as delivered and updates the delivery user's income
-    private String handleMarkOrderDelivered(Map<String, String> request) throws IOException {
+    private Response handleMarkOrderDelivered(Request request) throws IOException {
         // Authenticate the delivery user
         DeliveryUser deliveryUser = (DeliveryUser) authenticateUser(request);
         if (deliveryUser == null) {
-            return createResponse(false, "Authentication failed or delivery user not found");
+            return createResponse(ResponseType.MARK_ORDER_DELIVERED, false, "Authentication failed or delivery user not found");
         }
 
         // Check if the delivery user has a current order
         if (deliveryUser.getCurrentOrder() == null) {
-            return createResponse(false, "You are not on a delivery");
+            return createResponse(ResponseType.MARK_ORDER_DELIVERED, false, "You are not on a delivery");
         }
 
         // Update order status and delivery user's income
-        deliveryUser.getCurrentOrder().setStatus("Delivered");
+        Order order = deliveryUser.getCurrentOrder();
+        if (!ServerApp.orders.transition(order, OrderStatus.PICKED_UP, OrderStatus.DELIVERED)) {
+            return createResponse(ResponseType.MARK_ORDER_DELIVERED, false, "Order is no longer out for delivery");
+        }
+        // Saving clears the courier's current order, a change that cannot be saved is reverted and gives it back
+        if (!ServerApp.updateOrder(order, OrderStatus.PICKED_UP, OrderStatus.DELIVERED, deliveryUser::setCurrentOrder)) {
+            return createResponse(ResponseType.MARK_ORDER_DELIVERED, false, "Failed to update order status");
+        }
         deliveryUser.addIncome(DELIVERY_FEE);
-        ServerApp.updateOrder(deliveryUser.getCurrentOrder());
         deliveryUser.setCurrentOrder(null);
         ServerApp.updateUser(deliveryUser);
 
-        return createResponse(true, "Order marked as delivered");
+        return createResponse(ResponseType.MARK_ORDER_DELIVERED, true, "Order marked as delivered");
     }
 
     // Checks if a delivery user is currently on a delivery
-    private String handleCheckIfOnDelivery(Map<String, String> request) {
+    private Response handleCheckIfOnDelivery(Request request) {
         String username = request.get("username");
         String password = request.get("password");
         // Authenticate the delivery user
         DeliveryUser deliveryUser = (DeliveryUser) authenticateUser(request);
         if (deliveryUser == null) {
-            return createResponse(false, "Authentication failed or delivery user not found");
+            return createResponse(ResponseType.CHECK_IF_ON_DELIVERY, false, "Authentication failed or delivery user not found");
         }
 
         // Check if the delivery user has a current order
         if (deliveryUser.getCurrentOrder() == null) {
-            return createResponse(true, "You are not on a delivery");
+            return createResponse(ResponseType.CHECK_IF_ON_DELIVERY, true, "You are not on a delivery");
         }
         String address = deliveryUser.getCurrentOrder().getAddress();
-        return createResponse(true, "You are on a delivery to " + address);
+        return createResponse(ResponseType.CHECK_IF_ON_DELIVERY, true, "You are on a delivery to " + address);
     }
 
     // Picks up an order for delivery
-    private String handlePickupOrder(Map<String, String> request) throws IOException {
+    private Response handlePickupOrder(Request request) throws IOException {
         String username = request.get("username");
         String password = request.get("password");
-        int orderId = Integer.parseInt(request.get("orderId"));
+        int orderId = request.getInt("orderId", -1);
 
         // Authenticate the delivery user
         DeliveryUser deliveryUser = (DeliveryUser) authenticateUser(request);
         if (deliveryUser == null) {
-            return createResponse(false, "Authentication failed or delivery user not found");
+            return createResponse(ResponseType.PICKUP_ORDER, false, "Authentication failed or delivery user not found");
         }
 
         // Check if the delivery user is already on a delivery
         if (deliveryUser.getCurrentOrder() != null) {
-            return createResponse(false, "You already have an order to deliver");
+            return createResponse(ResponseType.PICKUP_ORDER, false, "You already have an order to deliver");
         }
 
-        // Update the order status
-        List<Order> deliveryOrders = List.of(ServerApp.getReadyForPickupOrders());
-        for (Order order : deliveryOrders) {
-            if (order.getOrderId() == orderId) {
-                order.setStatus("Picked Up");
-                order.setDeliveryPerson(deliveryUser.getUserName());
-                ServerApp.updateOrder(order);
-                deliveryUser.setCurrentOrder(order);
+        // Claim the order, only one courier can win when several pick up the same order
+        Order order = ServerApp.orders.get(orderId);
+        if (order == null) {
+            return createResponse(ResponseType.PICKUP_ORDER, false, "Order is not ready for pickup");
+        }
+        if (!ServerApp.orders.transition(order, OrderStatus.READY_FOR_PICKUP, OrderStatus.PICKED_UP, o -> o.setDeliveryPerson(deliveryUser.getUserName()))) {
+            if (order.getOrderStatus() == OrderStatus.PICKED_UP) {
+                return createResponse(ResponseType.PICKUP_ORDER, false, "Order was already picked up by another courier");
             }
+            return createResponse(ResponseType.PICKUP_ORDER, false, "Order is not ready for pickup");
+        }
+        // A pickup that cannot be saved is reverted, the order is ready again and the courier free
+        if (!ServerApp.updateOrder(order, OrderStatus.READY_FOR_PICKUP, OrderStatus.PICKED_UP, o -> {
+            o.setDeliveryPerson(null);
+            deliveryUser.setCurrentOrder(null);
+        })) {
+            return createResponse(ResponseType.PICKUP_ORDER, false, "Failed to update order status");
         }
+        deliveryUser.setCurrentOrder(order);
         String address = deliveryUser.getCurrentOrder().getAddress();
-        return createResponse(true, "Order picked up successfully for delivery to " + address);
+        return createResponse(ResponseType.PICKUP_ORDER, true, "Order picked up successfully for delivery to " + address);
     }
 
     // Retrieves orders available for delivery based on distance from the current location
-    private String handleGetDeliveryOrders(Map<String, String> request) {
+    private Response handleGetDeliveryOrders(Request request) {
         String username = request.get("username");
         String password = request.get("password");
 
         // Authenticate the delivery user
         DeliveryUser deliveryUser = (DeliveryUser) authenticateUser(request);
         if (deliveryUser == null) {
-            return createResponse(false, "Authentication failed or delivery user not found");
+            return createResponse(ResponseType.GET_DELIVERY_ORDERS, false, "Authentication failed or delivery user not found");
         }
-        double desiredDistance = 0;
         List<Order> deliveryOrders = new ArrayList<>();
         double[] currentLocation = null;
         try {
             currentLocation = geoLocationService.getCoordinates(request.get("address"));
         } catch (Exception e) {
-            return createResponse(false, "Invalid address");
+            return createResponse(ResponseType.GET_DELIVERY_ORDERS, false, "Invalid address");
         }
 
         // Check if current location was provided
         if (currentLocation == null || currentLocation.equals(new double[]{0.0, 0.0})) {
-            return createResponse(false, "Current location not provided");
+            return createResponse(ResponseType.GET_DELIVERY_ORDERS, false, "Current location not provided");
         }
 
-        // Parse desired distance
-        try {
-            desiredDistance = Double.parseDouble(request.get("distance"));
-        }
-        catch (NumberFormatException e) {
-            return createResponse(false, "Invalid distance format");
-        }
+        // The desired distance is required and the limit optional, the nearest orders are returned first
+        double desiredDistance = request.getDouble("distance", 0);
+        int limit = request.getInt("limit", 0); // 0 means no limit
 
-        // Filter orders based on distance
-        double distance = 999;
-        for (Order order : ServerApp.getReadyForPickupOrders()) {
-            if (order.getLocation() == null) {
-                order.setStatus("Cancelled");
+        // Cancel ready orders without a pickup location, no courier can ever find them
+        for (Order order : ServerApp.orders.getReadyWithoutLocation()) {
+            if (ServerApp.orders.transition(order, OrderStatus.READY_FOR_PICKUP, OrderStatus.CANCELLED)) {
                 try {
-                    ServerApp.updateOrder(order);
+                    ServerApp.updateOrder(order, OrderStatus.READY_FOR_PICKUP, OrderStatus.CANCELLED, null);
                 } catch (IOException e) {
-                    e.printStackTrace();
+                    ServerLogger.error("storage", e.getMessage(), e);
                 }
             }
-            if (!order.getStatus().equals("Ready For Pickup")) {
-                System.out.println("order status: " + order.getStatus());
-                continue;
-            }
-            try {
-                System.out.println(currentLocation[0] + " " + currentLocation[1] + " " + order.getLocation()[0] + " " + order.getLocation()[1]);
-                distance = geoLocationService.calculateDistance(currentLocation[0], currentLocation[1], order.getLocation()[0], order.getLocation()[1]);
-                System.out.println("Distance: " + distance);
-            }catch (Exception e){
-                deliveryOrders.remove(order);
-                continue;
-            }
-            if (distance > desiredDistance) {
-                continue;
+        }
+
+        // Find the ready orders within the desired distance, nearest first
+        for (GeoGrid.Hit<Order> hit : ServerApp.orders.getReadyNear(currentLocation[0], currentLocation[1], desiredDistance, limit)) {
+            Order order = hit.item();
+            if (order.getOrderStatus() != OrderStatus.READY_FOR_PICKUP) {
+                continue; // Picked up while the search ran
             }
-            order.setDistance(distance);
+            order.setDistance(hit.distanceKm());
             deliveryOrders.add(order);
         }
         // Check if there are any delivery orders
         if (deliveryOrders == null || deliveryOrders.isEmpty()) {
-            return createResponse(false, "No orders available for delivery");
+            return createResponse(ResponseType.GET_DELIVERY_ORDERS, false, "No orders available for delivery");
         }
-        return createResponse(true, gson.toJson(deliveryOrders));
+        return createPayloadResponse(ResponseType.GET_DELIVERY_ORDERS, deliveryOrders);
     }
 
     // Default handler for invalid request types
-    private String handleDefault() {
-        return createResponse(false, "Invalid request type");
+    private Response handleDefault() {
+        return createResponse(ResponseType.UNKNOWN_REQUEST_TYPE, false, "Invalid request type");
     }
 }
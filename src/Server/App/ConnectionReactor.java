@@ -0,0 +1,366 @@
+// Group: 6
+package Server.App;
+
+import Server.Utilities.ServerLogger;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * ConnectionReactor is a selector driven front end for the JSON protocol.
+ * A single thread accepts clients and does all socket reads and writes in non-blocking mode.
+ * Incoming bytes are split into lines, or into length-prefixed frames once a client upgraded,
+ * and only complete requests are handed to the worker pool, where the ClientHandler of the connection runs the matching handleXxx method.
+ * Plain requests of a connection run one at a time in arrival order, requests that carry
+ * a requestId may run concurrently on several workers.
+ * Idle clients (for example logged-in restaurants waiting for orders) therefore cost no thread.
+ * Output of every connection is queued in its OutboundQueue; while a client is too far behind on reading
+ * it, the reactor stops reading that client's requests.
+ */
+public class ConnectionReactor implements Runnable {
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+    private static final int MAX_LINE_LENGTH = Frame.MAX_HEADER_LENGTH; // Base64 images travel inside a single line
+
+    private final Selector selector;
+    private final ServerSocketChannel serverChannel;
+    private final ExecutorService workers;
+    private final ByteBuffer readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE); // Only used by the reactor thread
+    private final Queue<ReactorConnection> pendingWrites = new ConcurrentLinkedQueue<>(); // Connections that got new output
+
+    // Constructor to bind the server channel and register it with a new selector
+    public ConnectionReactor(int port, ExecutorService workers) throws IOException {
+        this.workers = workers;
+        this.selector = Selector.open();
+        this.serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(port));
+        serverChannel.configureBlocking(false);
+        serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+    }
+
+    // The event loop, runs until the selector is closed
+    @Override
+    public void run() {
+        while (selector.isOpen()) {
+            try {
+                selector.select();
+                registerPendingWrites();
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    try {
+                        if (key.isAcceptable()) {
+                            accept();
+                        } else {
+                            ReactorConnection connection = (ReactorConnection) key.attachment();
+                            if (key.isReadable()) {
+                                connection.read();
+                            }
+                            if (key.isValid() && key.isWritable()) {
+                                connection.write();
+                            }
+                        }
+                    } catch (IOException | CancelledKeyException e) {
+                        if (key.attachment() instanceof ReactorConnection connection) {
+                            connection.close();
+                        }
+                    }
+                }
+            } catch (ClosedSelectorException e) {
+                break;
+            } catch (IOException e) {
+                ServerLogger.error("connection", "Reactor loop failed", e);
+            }
+        }
+    }
+
+    // Stops the event loop and closes the listening channel
+    public void shutdown() throws IOException {
+        selector.close();
+        serverChannel.close();
+    }
+
+    // Accepts every pending client and registers it for reads
+    private void accept() throws IOException {
+        SocketChannel channel;
+        while ((channel = serverChannel.accept()) != null) {
+            channel.configureBlocking(false);
+            channel.socket().setTcpNoDelay(true);
+            ReactorConnection connection = new ReactorConnection(channel);
+            connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+            ServerLogger.info("connection", "New client connected from " + connection.getRemoteAddress());
+        }
+    }
+
+    // Switches connections that received output from worker threads to write interest
+    private void registerPendingWrites() {
+        ReactorConnection connection;
+        while ((connection = pendingWrites.poll()) != null) {
+            SelectionKey key = connection.key;
+            try {
+                if (key != null && key.isValid()) {
+                    connection.updateInterest();
+                }
+            } catch (CancelledKeyException e) {
+                // Closed by a worker in the meantime
+            }
+        }
+    }
+
+    // One accepted client. Reads and writes happen on the reactor thread, requests run on the workers.
+    private class ReactorConnection implements ClientConnection {
+        private final SocketChannel channel;
+        private final String remoteAddress;
+        private final ClientHandler handler;
+        private SelectionKey key;
+        private final ByteArrayOutputStream partialLine = new ByteArrayOutputStream();
+        private final ByteBuffer framePrefix = ByteBuffer.allocate(Frame.PREFIX_LENGTH); // Lengths of the frame being read
+        private ByteBuffer frameHeader; // Header of the frame being read, null while the prefix is incomplete
+        private ByteBuffer frameAttachment; // Attachment of the frame being read, null if it has none
+        private boolean firstLineRead; // Only the first line may ask for a protocol upgrade
+        private volatile boolean framed; // Set by the reactor thread, read by workers when encoding
+        private final OutboundQueue outbound = new OutboundQueue();
+        private boolean readPaused; // Only used by the reactor thread, true while the client is behind on its output
+        private final Queue<Frame> inbox = new ArrayDeque<>(); // Guarded by this
+        private boolean scheduled; // Guarded by this, true while a worker drains the inbox
+        private volatile boolean closed;
+        private volatile long lastReadMillis = System.currentTimeMillis(); // Written by the reactor thread, read by SessionReaper
+
+        ReactorConnection(SocketChannel channel) throws IOException {
+            this.channel = channel;
+            this.remoteAddress = String.valueOf(channel.getRemoteAddress());
+            this.handler = new ClientHandler(this, workers);
+        }
+
+        // Reads whatever is available and splits it into requests
+        void read() throws IOException {
+            readBuffer.clear();
+            int count = channel.read(readBuffer);
+            if (count < 0) {
+                close();
+                return;
+            }
+            lastReadMillis = System.currentTimeMillis();
+            readBuffer.flip();
+            while (readBuffer.hasRemaining()) {
+                if (framed) {
+                    readFrames(readBuffer);
+                } else {
+                    readLines(readBuffer);
+                }
+            }
+        }
+
+        // Splits bytes into request lines, stops early if the connection switches to frames
+        private void readLines(ByteBuffer data) throws IOException {
+            byte[] bytes = data.array();
+            int start = data.position();
+            int end = data.limit();
+            for (int i = start; i < end; i++) {
+                if (bytes[i] == '\n') {
+                    partialLine.write(bytes, start, i - start);
+                    start = i + 1;
+                    String line = partialLine.toString(StandardCharsets.UTF_8);
+                    partialLine.reset();
+                    if (line.endsWith("\r")) {
+                        line = line.substring(0, line.length() - 1);
+                    }
+                    if (!firstLineRead) {
+                        firstLineRead = true;
+                        if (handler.upgradeIfRequested(line)) {
+                            if (framed) {
+                                data.position(start); // The rest of the buffer is already framed
+                                return;
+                            }
+                            continue;
+                        }
+                    }
+                    enqueue(new Frame(line, null));
+                }
+            }
+            partialLine.write(bytes, start, end - start);
+            data.position(end);
+            if (partialLine.size() > MAX_LINE_LENGTH) {
+                throw new IOException("Request line too long from " + remoteAddress);
+            }
+        }
+
+        // Fills the prefix, header and attachment of frames, a frame is queued once all its bytes arrived
+        private void readFrames(ByteBuffer data) throws IOException {
+            while (data.hasRemaining()) {
+                if (frameHeader == null) {
+                    transfer(data, framePrefix);
+                    if (framePrefix.hasRemaining()) {
+                        return;
+                    }
+                    framePrefix.flip();
+                    int headerLength = framePrefix.getInt();
+                    int attachmentLength = framePrefix.getInt();
+                    framePrefix.clear();
+                    Frame.checkLengths(headerLength, attachmentLength);
+                    frameHeader = ByteBuffer.allocate(headerLength);
+                    frameAttachment = attachmentLength > 0 ? ByteBuffer.allocate(attachmentLength) : null;
+                }
+                transfer(data, frameHeader);
+                if (frameAttachment != null) {
+                    transfer(data, frameAttachment);
+                }
+                if (frameHeader.hasRemaining() || (frameAttachment != null && frameAttachment.hasRemaining())) {
+                    return;
+                }
+                String header = new String(frameHeader.array(), StandardCharsets.UTF_8);
+                enqueue(new Frame(header, frameAttachment == null ? null : frameAttachment.array()));
+                frameHeader = null;
+                frameAttachment = null;
+            }
+        }
+
+        // Copies as many bytes as fit from one buffer into the other
+        private static void transfer(ByteBuffer from, ByteBuffer to) {
+            int length = Math.min(from.remaining(), to.remaining());
+            to.put(to.position(), from, from.position(), length);
+            to.position(to.position() + length);
+            from.position(from.position() + length);
+        }
+
+        // Requests of one connection are processed in arrival order, one at a time.
+        // Requests beyond the server-wide admission limit are answered right away and never queued.
+        private void enqueue(Frame frame) {
+            if (!RateLimiter.tryAdmit()) {
+                send(handler.handleServerBusy());
+                return;
+            }
+            synchronized (this) {
+                inbox.add(frame);
+                if (scheduled) {
+                    return;
+                }
+                scheduled = true;
+            }
+            workers.execute(this::drainInbox);
+        }
+
+        // Runs on a worker thread until the inbox is empty, pipelined requests are forked off to other workers
+        private void drainInbox() {
+            while (true) {
+                Frame frame;
+                synchronized (this) {
+                    if (closed) {
+                        // Give back the admission permits of requests that will never run
+                        for (int i = 0; i < inbox.size(); i++) {
+                            RateLimiter.release();
+                        }
+                        inbox.clear();
+                    }
+                    frame = inbox.poll();
+                    if (frame == null) {
+                        scheduled = false;
+                        return;
+                    }
+                }
+                handler.processFrame(frame, RateLimiter::release);
+            }
+        }
+
+        // Writes queued output until the socket buffer is full
+        void write() throws IOException {
+            ByteBuffer buffer;
+            while ((buffer = outbound.peek()) != null) {
+                channel.write(buffer);
+                if (buffer.hasRemaining()) {
+                    break; // Socket buffer is full, wait for the next write event
+                }
+                outbound.remove();
+            }
+            updateInterest();
+        }
+
+        // Wants writes while output is queued and stops reading while too much of it is queued
+        void updateInterest() {
+            long queued = outbound.getQueuedBytes();
+            if (queued > OutboundQueue.HIGH_WATERMARK) {
+                readPaused = true;
+            } else if (queued < OutboundQueue.LOW_WATERMARK) {
+                readPaused = false;
+            }
+            // A worker that queues more output after this check also queues the connection in pendingWrites
+            int ops = (readPaused ? 0 : SelectionKey.OP_READ) | (outbound.isEmpty() ? 0 : SelectionKey.OP_WRITE);
+            key.interestOps(ops);
+        }
+
+        @Override
+        public void send(Response response) {
+            queue(response, false);
+        }
+
+        @Override
+        public boolean push(Response event) {
+            return queue(event, true);
+        }
+
+        // Encodes the response on the calling thread and queues the bytes for the reactor
+        private boolean queue(Response response, boolean push) {
+            if (closed) {
+                return false;
+            }
+            try {
+                if (!outbound.add(response, framed, push)) {
+                    return false;
+                }
+            } catch (IOException e) {
+                ServerLogger.error("connection", "Could not encode response for " + remoteAddress, e);
+                return false;
+            }
+            pendingWrites.add(this);
+            selector.wakeup();
+            return true;
+        }
+
+        @Override
+        public void upgradeToFrames() {
+            framed = true;
+        }
+
+        @Override
+        public long getLastReadMillis() {
+            return lastReadMillis;
+        }
+
+        @Override
+        public boolean isClosed() {
+            return closed;
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+            outbound.close();
+            PushBus.unsubscribe(this);
+            if (key != null) {
+                key.cancel();
+            }
+            try {
+                channel.close();
+            } catch (IOException e) {
+                ServerLogger.error("connection", "Could not close connection to " + remoteAddress, e);
+            }
+        }
+
+        @Override
+        public String getRemoteAddress() {
+            return remoteAddress;
+        }
+    }
+}
@@ -0,0 +1,178 @@
+// Group: 6
+package Server.App;
+
+import Server.Models.RestaurantUser;
+import Server.Utilities.GeoGrid;
+import Server.Utilities.GeoLocationService;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * DiscoveryCache remembers the answers of "restaurants near me" queries (getRestaurants, searchItems by distance)
+ * for customers in the same neighbourhood. Query points are rounded to a grid cell of CELL_KM and radii up to the
+ * next of RADIUS_BUCKETS_KM, and one entry is kept per cell, cuisine and radius bucket.
+ * An entry holds the restaurants within the bucket radius of any point of its cell (the bucket plus half the cell's
+ * diagonal around the cell center), not the answer itself. Every request measures the exact distances from its own
+ * point to those few candidates, so answers are the same as without the cache.
+ * When a restaurant opens, closes or moves, RestaurantSessions calls changed with its location and cuisine, and only the
+ * entries whose area contains that location and whose cuisine matches are dropped. Entries also expire after
+ * TTL_SECONDS. Restaurant details other than location and cuisine are read live and need no invalidation.
+ */
+public class DiscoveryCache {
+    // Configuration
+    public static final double CELL_KM = 1; // Query points in the same cell share entries
+    public static final double[] RADIUS_BUCKETS_KM = {1, 2, 5, 10, 20, 30, 50, 100}; // Larger radii are not cached
+    public static final int TTL_SECONDS = 60; // Entries are rebuilt after this long even if nothing changed
+    public static final int MAX_ENTRIES = 10_000; // No new entries are made while this many are cached
+
+    private static final double KM_PER_DEGREE = 111.2;
+    private static final double CELL_DEGREES = CELL_KM / KM_PER_DEGREE;
+    private static final double HALF_DIAGONAL_KM = CELL_KM * Math.sqrt(2) / 2 + 0.01; // Farthest a cell's point is from its center
+
+    private final Map<Key, Entry> entries = new ConcurrentHashMap<>();
+    private final GeoGrid<Entry> byCenter = new GeoGrid<>(RADIUS_BUCKETS_KM[RADIUS_BUCKETS_KM.length - 1]); // To find the entries a change affects
+    private final AtomicLong changes = new AtomicLong(); // Counts changes, so a lookup can tell whether one raced it
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong invalidations = new AtomicLong();
+
+    // A cell, a cuisine (null for all) and a radius bucket
+    private record Key(long latCell, long lonCell, String cuisine, double bucketKm) {
+    }
+
+    // A restaurant and where it was when the entry was made
+    private record Candidate(RestaurantUser restaurant, double lat, double lon) {
+    }
+
+    // The candidates around one cell, compared by identity
+    private static final class Entry {
+        final Key key;
+        final double coverKm; // Radius around the cell center that the candidates cover
+        final List<Candidate> candidates;
+        final long expiresAtMillis;
+
+        Entry(Key key, double coverKm, List<Candidate> candidates) {
+            this.key = key;
+            this.coverKm = coverKm;
+            this.candidates = candidates;
+            this.expiresAtMillis = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(TTL_SECONDS);
+        }
+    }
+
+    // Returns the restaurants of a grid within radiusKm of a point, nearest first and at most limit of them (0 for all).
+    // cuisine is the lower-case cuisine of the grid, or null for the grid of all restaurants.
+    public List<GeoGrid.Hit<RestaurantUser>> nearby(GeoGrid<RestaurantUser> grid, String cuisine, double lat, double lon,
+                                                    double radiusKm, int limit) {
+        double bucketKm = bucket(radiusKm);
+        if (bucketKm < 0) {
+            return grid.within(lat, lon, radiusKm, limit);
+        }
+        Key key = new Key(cellIndex(lat), cellIndex(lon), cuisine, bucketKm);
+        Entry entry = entries.get(key);
+        if (entry != null && System.currentTimeMillis() < entry.expiresAtMillis) {
+            hits.incrementAndGet();
+        } else {
+            misses.incrementAndGet();
+            if (entry != null) {
+                drop(entry);
+            }
+            entry = load(key, grid);
+        }
+        List<GeoGrid.Hit<RestaurantUser>> found = new ArrayList<>();
+        for (Candidate candidate : entry.candidates) {
+            double distance = GeoLocationService.distanceKm(lat, lon, candidate.lat(), candidate.lon());
+            if (distance <= radiusKm) {
+                found.add(new GeoGrid.Hit<>(candidate.restaurant(), distance));
+            }
+        }
+        found.sort(Comparator.comparingDouble(GeoGrid.Hit::distanceKm));
+        return limit > 0 && found.size() > limit ? new ArrayList<>(found.subList(0, limit)) : found;
+    }
+
+    // Reads the candidates of an entry from the live grid and caches them
+    private Entry load(Key key, GeoGrid<RestaurantUser> grid) {
+        double centerLat = (key.latCell() + 0.5) * CELL_DEGREES;
+        double centerLon = (key.lonCell() + 0.5) * CELL_DEGREES;
+        double coverKm = key.bucketKm() + HALF_DIAGONAL_KM;
+        long seen = changes.get();
+        List<Candidate> candidates = new ArrayList<>();
+        for (GeoGrid.Hit<RestaurantUser> hit : grid.within(centerLat, centerLon, coverKm, 0)) {
+            double[] location = hit.item().getCoordinates();
+            if (location != null) {
+                candidates.add(new Candidate(hit.item(), location[0], location[1]));
+            }
+        }
+        Entry entry = new Entry(key, coverKm, candidates);
+        if (entries.size() < MAX_ENTRIES && entries.putIfAbsent(key, entry) == null) { // Otherwise a concurrent miss cached it
+            byCenter.put(entry, centerLat, centerLon);
+            if (changes.get() != seen) {
+                drop(entry); // A restaurant changed while the grids were read, the entry may have missed it
+            }
+        }
+        return entry;
+    }
+
+    // Drops the entries a restaurant at a location affects, called after it opened, closed or moved.
+    // cuisine is the restaurant's lower-case cuisine.
+    public void changed(double lat, double lon, String cuisine) {
+        changes.incrementAndGet();
+        double farthest = RADIUS_BUCKETS_KM[RADIUS_BUCKETS_KM.length - 1] + HALF_DIAGONAL_KM;
+        for (GeoGrid.Hit<Entry> hit : byCenter.within(lat, lon, farthest, 0)) {
+            Entry entry = hit.item();
+            if (hit.distanceKm() <= entry.coverKm && (entry.key.cuisine() == null || entry.key.cuisine().equals(cuisine))) {
+                drop(entry);
+                invalidations.incrementAndGet();
+            }
+        }
+    }
+
+    private void drop(Entry entry) {
+        entries.remove(entry.key, entry);
+        byCenter.remove(entry);
+    }
+
+    // Drops expired entries, called by the session reaper's timer
+    public void removeExpired() {
+        long now = System.currentTimeMillis();
+        for (Entry entry : entries.values()) {
+            if (now >= entry.expiresAtMillis) {
+                drop(entry);
+            }
+        }
+    }
+
+    private static double bucket(double radiusKm) {
+        for (double bucketKm : RADIUS_BUCKETS_KM) {
+            if (radiusKm <= bucketKm) {
+                return bucketKm;
+            }
+        }
+        return -1;
+    }
+
+    private static long cellIndex(double degrees) {
+        return (long) Math.floor(degrees / CELL_DEGREES);
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getInvalidations() {
+        return invalidations.get();
+    }
+}
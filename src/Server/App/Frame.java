@@ -0,0 +1,28 @@
+// Group: 6
+package Server.App;
+
+import java.io.IOException;
+
+/**
+ * Frame is one inbound message: the JSON header of a request and its optional raw attachment.
+ * Line clients only ever produce frames without an attachment. Clients that upgraded with
+ * {"type": "upgradeProtocol", "protocol": "frames"} send every request as
+ * [int headerLength][int attachmentLength][header JSON, UTF-8][attachment bytes] (big-endian),
+ * and receive responses in the same layout.
+ */
+public record Frame(String header, byte[] attachment) {
+    public static final String PROTOCOL_NAME = "frames"; // Value of "protocol" in the upgrade request
+    public static final int PREFIX_LENGTH = 8; // Two big-endian ints: header length and attachment length
+    public static final int MAX_HEADER_LENGTH = 32 * 1024 * 1024; // Same limit as a request line
+    public static final int MAX_ATTACHMENT_LENGTH = 32 * 1024 * 1024;
+
+    // Checks the lengths read from a frame prefix, throws if a client announces an oversized frame
+    public static void checkLengths(int headerLength, int attachmentLength) throws IOException {
+        if (headerLength <= 0 || headerLength > MAX_HEADER_LENGTH) {
+            throw new IOException("Invalid frame header length " + headerLength);
+        }
+        if (attachmentLength < 0 || attachmentLength > MAX_ATTACHMENT_LENGTH) {
+            throw new IOException("Invalid frame attachment length " + attachmentLength);
+        }
+    }
+}
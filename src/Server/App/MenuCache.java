@@ -0,0 +1,58 @@
+// Group: 6
+package Server.App;
+
+import Server.Models.RestaurantUser;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * MenuCache keeps the getMenu reply of each restaurant as JSON text, ready to be written out,
+ * so a menu is described (image lookups included) and serialised once per change instead of on every request.
+ * Every cached menu has a version. A client that sends the version it already has gets a short
+ * "Not modified" reply instead of the menu.
+ * Whatever changes a menu must call invalidate afterwards; the next request builds the entry again with a new version.
+ * Versions are unique for the life of the server and start from the clock, so a version a client kept
+ * from before a restart does not match a menu built after it.
+ */
+public class MenuCache {
+    private final Map<String, Entry> byRestaurant = new ConcurrentHashMap<>();
+    private final AtomicLong nextVersion = new AtomicLong(System.currentTimeMillis() * 1000);
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    // The serialised menu of one restaurant and its version
+    public record Entry(long version, String json) {
+    }
+
+    // Returns the cached menu of a restaurant, building it with render if there is none
+    public Entry get(RestaurantUser restaurant, Function<RestaurantUser, String> render) {
+        Entry entry = byRestaurant.get(restaurant.getUserName());
+        if (entry != null) {
+            hits.incrementAndGet();
+            return entry;
+        }
+        misses.incrementAndGet();
+        // Built under the map's lock for this key, so an invalidate that races the build waits and then removes it
+        return byRestaurant.computeIfAbsent(restaurant.getUserName(), username -> new Entry(nextVersion.incrementAndGet(), render.apply(restaurant)));
+    }
+
+    // Drops the cached menu of a restaurant after it changed
+    public void invalidate(String username) {
+        byRestaurant.remove(username);
+    }
+
+    public int size() {
+        return byRestaurant.size();
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+}
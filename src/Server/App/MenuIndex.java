@@ -0,0 +1,200 @@
+// Group: 6
+package Server.App;
+
+import Server.Models.Order;
+import Server.Models.RestaurantUser;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * MenuIndex is a search index over the menu items of every open restaurant.
+ * An item's name and description are lower-cased and cut into trigrams (every run of three characters),
+ * and each trigram maps to the items whose text contains it. A query only looks at the items of its
+ * rarest trigram and checks those with contains, so it finds exactly what a substring search over every
+ * menu would, without scanning the menus. Queries shorter than three characters check every item.
+ * Matches can be narrowed by cuisine, price range, availability and a set of restaurants (for example
+ * the ones within a distance), and each result carries counts per cuisine and availability of the text
+ * matches so clients can offer those filters.
+ * A restaurant's items are indexed again as a whole whenever its menu changes, menus are small.
+ */
+public class MenuIndex {
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Map<String, List<Entry>> byRestaurant = new HashMap<>(); // Username -> its indexed items
+    private final Map<String, Set<Entry>> byTrigram = new HashMap<>();
+
+    // One indexed menu item of a restaurant
+    public static final class Entry {
+        private final RestaurantUser restaurant;
+        private final Order.Item item;
+        private final String text; // Lower-cased name and description
+
+        private Entry(RestaurantUser restaurant, Order.Item item) {
+            this.restaurant = restaurant;
+            this.item = item;
+            this.text = lowerCase(item.getName()) + "\n" + lowerCase(item.getDescription());
+        }
+
+        public RestaurantUser getRestaurant() {
+            return restaurant;
+        }
+
+        public Order.Item getItem() {
+            return item;
+        }
+    }
+
+    // The items that matched a search and the counts of the text matches per facet value
+    public record Result(List<Entry> items, int total, Map<String, Integer> cuisines, int available, int unavailable) {
+    }
+
+    // Indexes the current menu of a restaurant, replacing what was indexed for it before
+    public void put(RestaurantUser restaurant) {
+        List<Entry> entries = new ArrayList<>();
+        for (Order.Item item : restaurant.getMenu()) {
+            entries.add(new Entry(restaurant, item));
+        }
+        lock.writeLock().lock();
+        try {
+            unindex(restaurant.getUserName());
+            byRestaurant.put(restaurant.getUserName(), entries);
+            for (Entry entry : entries) {
+                for (String trigram : trigrams(entry.text)) {
+                    byTrigram.computeIfAbsent(trigram, t -> new HashSet<>()).add(entry);
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // Removes a restaurant's items, for example when it logs out
+    public void remove(String username) {
+        lock.writeLock().lock();
+        try {
+            unindex(username);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void unindex(String username) {
+        List<Entry> entries = byRestaurant.remove(username);
+        if (entries == null) {
+            return;
+        }
+        for (Entry entry : entries) {
+            for (String trigram : trigrams(entry.text)) {
+                Set<Entry> posting = byTrigram.get(trigram);
+                if (posting != null) {
+                    posting.remove(entry);
+                    if (posting.isEmpty()) {
+                        byTrigram.remove(trigram);
+                    }
+                }
+            }
+        }
+    }
+
+    // Finds the items whose name or description contains the query (empty or null matches everything).
+    // cuisine may be null or "All", restaurants is the set of usernames to search in or null for all.
+    // Items whose name matches come first. limit of 0 returns every match.
+    public Result search(String query, String cuisine, double minPrice, double maxPrice, boolean availableOnly,
+                         Set<String> restaurants, int limit) {
+        String text = lowerCase(query);
+        boolean anyCuisine = cuisine == null || cuisine.isEmpty() || "all".equalsIgnoreCase(cuisine);
+        List<Entry> nameMatches = new ArrayList<>();
+        List<Entry> descriptionMatches = new ArrayList<>();
+        Map<String, Integer> cuisines = new LinkedHashMap<>();
+        int available = 0;
+        int unavailable = 0;
+        lock.readLock().lock();
+        try {
+            for (Entry entry : candidates(text, restaurants)) {
+                int found = entry.text.indexOf(text);
+                if (found < 0 || (restaurants != null && !restaurants.contains(entry.restaurant.getUserName()))) {
+                    continue;
+                }
+                // Facet counts are taken before the facet filters, so they show what else could be picked
+                cuisines.merge(entry.restaurant.getCuisine(), 1, Integer::sum);
+                if (entry.item.isAvailable()) {
+                    available++;
+                } else {
+                    unavailable++;
+                }
+                double price = entry.item.getPrice();
+                if ((!anyCuisine && !cuisine.equalsIgnoreCase(entry.restaurant.getCuisine()))
+                        || price < minPrice || price > maxPrice || (availableOnly && !entry.item.isAvailable())) {
+                    continue;
+                }
+                (found + text.length() <= entry.text.indexOf('\n') ? nameMatches : descriptionMatches).add(entry);
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        nameMatches.addAll(descriptionMatches);
+        int total = nameMatches.size();
+        List<Entry> items = limit > 0 && total > limit ? new ArrayList<>(nameMatches.subList(0, limit)) : nameMatches;
+        return new Result(items, total, cuisines, available, unavailable);
+    }
+
+    // Returns the items that may contain the text, the caller checks them
+    private Collection<Entry> candidates(String text, Set<String> restaurants) {
+        if (text.length() < 3) {
+            List<Entry> all = new ArrayList<>();
+            Collection<String> usernames = restaurants == null ? byRestaurant.keySet() : restaurants;
+            for (String username : usernames) {
+                List<Entry> entries = byRestaurant.get(username);
+                if (entries != null) {
+                    all.addAll(entries);
+                }
+            }
+            return all;
+        }
+        Set<Entry> rarest = null;
+        for (String trigram : trigrams(text)) {
+            Set<Entry> posting = byTrigram.get(trigram);
+            if (posting == null) {
+                return List.of(); // No item contains this part of the query
+            }
+            if (rarest == null || posting.size() < rarest.size()) {
+                rarest = posting;
+            }
+        }
+        return rarest; // Only read while the read lock is held
+    }
+
+    // Returns the number of indexed items
+    public int size() {
+        lock.readLock().lock();
+        try {
+            int size = 0;
+            for (List<Entry> entries : byRestaurant.values()) {
+                size += entries.size();
+            }
+            return size;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private static Set<String> trigrams(String text) {
+        Set<String> trigrams = new HashSet<>();
+        for (int i = 0; i + 3 <= text.length(); i++) {
+            trigrams.add(text.substring(i, i + 3));
+        }
+        return trigrams;
+    }
+
+    private static String lowerCase(String text) {
+        return text == null ? "" : text.toLowerCase(Locale.ROOT);
+    }
+}
@@ -0,0 +1,110 @@
+// Group: 6
+package Server.App;
+
+import Server.Utilities.ServerLogger;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * OrderIdAllocator hands out order IDs from memory and only goes to disk once every BLOCK_SIZE IDs.
+ * The ID file, server_logs/order_id.txt, holds a high-water mark: no ID at or above it was ever handed out.
+ * When the IDs below the mark run out, the next block is reserved by forcing a higher mark to disk, and no ID
+ * of the new block is returned before that write is done. After a crash the server starts at the mark, so the
+ * unused rest of the last block is skipped and an ID is never handed out twice.
+ * IDs are taken with one atomic increment, so concurrent orders never share an ID and never wait for each other
+ * except for the one order that reserves the next block.
+ */
+public class OrderIdAllocator {
+    // Configuration
+    public static final int BLOCK_SIZE = 1_000; // IDs reserved with one write of the ID file
+
+    private final Path idPath;
+    private final AtomicInteger next = new AtomicInteger(); // The next ID to hand out
+    private final ReentrantLock reserving = new ReentrantLock(); // Not synchronized, it is held over file I/O on virtual threads
+    private volatile int reservedUpTo; // IDs below this mark are on disk and may be handed out
+    private volatile boolean loaded;
+    private final AtomicLong reservations = new AtomicLong();
+
+    public OrderIdAllocator(String directory) {
+        this.idPath = Path.of(directory, "order_id.txt");
+    }
+
+    // Starts after the persisted mark and after every loaded order, called once at startup before orders are placed
+    public void load(int highestOrderId) throws IOException {
+        int mark = 0;
+        if (Files.exists(idPath)) {
+            String text = Files.readString(idPath, StandardCharsets.UTF_8).trim();
+            try {
+                mark = Integer.parseInt(text);
+            } catch (NumberFormatException e) {
+                ServerLogger.error("storage", "Unreadable order ID file \"" + text + "\", continuing after the highest loaded order", e);
+            }
+        }
+        int start = Math.max(mark, highestOrderId + 1);
+        reserving.lock();
+        try {
+            next.set(start);
+            reservedUpTo = start; // The first order reserves a block
+            loaded = true;
+        } finally {
+            reserving.unlock();
+        }
+        ServerLogger.info("storage", "Order IDs continue at " + start);
+    }
+
+    // Returns a new order ID, writes the ID file only when a new block is needed
+    public int next() throws IOException {
+        if (!loaded) {
+            throw new IllegalStateException("Order IDs are not loaded yet");
+        }
+        int id = next.getAndIncrement();
+        if (id < reservedUpTo) {
+            return id;
+        }
+        reserve(id);
+        return id;
+    }
+
+    // Moves the mark on disk past this ID, several threads past the old mark wait for one write
+    private void reserve(int id) throws IOException {
+        reserving.lock();
+        try {
+            if (id < reservedUpTo) { // Another thread reserved a block covering this ID meanwhile
+                return;
+            }
+            int mark = Math.addExact(id, BLOCK_SIZE);
+            Path temp = idPath.resolveSibling(idPath.getFileName() + ".tmp");
+            Files.writeString(temp, Integer.toString(mark), StandardCharsets.UTF_8);
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                channel.force(true);
+            }
+            Files.move(temp, idPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            reservedUpTo = mark;
+            reservations.incrementAndGet();
+        } finally {
+            reserving.unlock();
+        }
+    }
+
+    // Returns the next ID that will be handed out
+    public int getNextId() {
+        return next.get();
+    }
+
+    public int getReservedUpTo() {
+        return reservedUpTo;
+    }
+
+    public long getReservationCount() {
+        return reservations.get();
+    }
+}
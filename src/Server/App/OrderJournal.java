@@ -0,0 +1,379 @@
+// Group: 6
+package Server.App;
+
+import Server.Models.Order;
+import Server.Utilities.ServerLogger;
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * OrderJournal makes order changes durable by appending one short event per change to an append-only file,
+ * instead of rewriting the files of every user.
+ * A "placed" event holds the whole new order, a "status" event the order's ID, status and courier at the time
+ * it was written. Events are numbered, and since each one carries the order's full current status rather than
+ * a difference, replaying an event twice or on top of a newer state is harmless.
+ * Writers hand their event to a single writer thread and wait; the writer thread writes whatever events are
+ * waiting as one group and forces them to disk once for the whole group (group commit), so many concurrent
+ * order changes cost one disk flush.
+ * Every SNAPSHOT_EVERY_EVENTS events the journal is compacted: the current file is set aside, a snapshot of
+ * all orders (with the number of the last event it includes) is written next to it with a temp file and a rename,
+ * and the set aside file is deleted. A new order is added to the store by placed only after its event is on
+ * disk, so the snapshot first waits until the orders of every event in the set aside file are stored; the store
+ * it copies then holds every event up to the snapshot's number. If an order is not stored within
+ * STORE_WAIT_MILLIS the snapshot is given up and the set aside file kept, like after any failed snapshot. A crash at any point leaves a snapshot and the journal files needed to get
+ * back to the last acknowledged event.
+ * On startup load reads the snapshot and replays the newer events of the set aside and the current file.
+ * A torn last event (the server died while writing it) is cut off, an unreadable event anywhere else means the
+ * journal is corrupt and loading fails instead of dropping the events after it.
+ * A group whose write fails is cut off again before the next group is written, so acknowledged events always
+ * follow each other without garbage in between.
+ * The order lists kept in user files (order history, a restaurant's pending orders, a courier's current order)
+ * are not journaled, they are rebuilt from the orders on startup.
+ */
+public class OrderJournal {
+    // Configuration
+    public static final int SNAPSHOT_EVERY_EVENTS = 10_000; // Compact the journal into a snapshot after this many events
+    public static final boolean FORCE_ON_COMMIT = true; // Force every group to disk before its writers continue
+    public static final long STORE_WAIT_MILLIS = 10_000; // How long a snapshot waits for a placed order to reach the store
+
+    private final Path journalPath;
+    private final Path previousPath; // The journal set aside while a snapshot is written
+    private final Path snapshotPath;
+    private final Gson gson;
+    private final OrderStore store;
+    private final Object appendLock = new Object(); // Keeps event numbers in queue order
+    private final BlockingQueue<Pending> queue = new LinkedBlockingQueue<>();
+    private long lastSeq; // Number of the last event queued, guarded by appendLock
+    private long lastWrittenSeq; // Only used by the writer thread
+    private long eventsSinceSnapshot; // Only used by the writer thread
+    // Placed events whose order is not in the store yet, each completed once placed is done with it
+    private final ConcurrentSkipListMap<Long, CompletableFuture<Void>> unstored = new ConcurrentSkipListMap<>();
+    private volatile boolean snapshotRunning;
+    private FileChannel channel;
+    private long committedSize; // Length of the journal up to the end of the last acknowledged group, only used by the writer thread
+    private final AtomicLong events = new AtomicLong();
+    private final AtomicLong commits = new AtomicLong();
+    private final AtomicLong snapshots = new AtomicLong();
+
+    // An encoded event waiting for the writer thread
+    private record Pending(long seq, byte[] line, CompletableFuture<Void> written) {
+    }
+
+    public OrderJournal(String directory, OrderStore store, Gson gson) {
+        this.journalPath = Path.of(directory, "orders.journal");
+        this.previousPath = Path.of(directory, "orders.journal.previous");
+        this.snapshotPath = Path.of(directory, "orders.snapshot");
+        this.store = store;
+        this.gson = gson;
+    }
+
+    // Reads the snapshot and replays the journal, returns the orders in the order they were placed.
+    // Called once at startup, before start.
+    public Collection<Order> load() throws IOException {
+        Map<Integer, Order> orders = new LinkedHashMap<>();
+        long snapshotSeq = 0;
+        if (Files.exists(snapshotPath)) {
+            try (BufferedReader reader = Files.newBufferedReader(snapshotPath, StandardCharsets.UTF_8)) {
+                snapshotSeq = JsonParser.parseString(reader.readLine()).getAsJsonObject().get("seq").getAsLong();
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    Order order = gson.fromJson(line, Order.class);
+                    orders.put(order.getOrderId(), order);
+                }
+            }
+        }
+        long seq = snapshotSeq;
+        seq = Math.max(seq, replay(previousPath, snapshotSeq, orders));
+        seq = Math.max(seq, replay(journalPath, snapshotSeq, orders));
+        lastSeq = seq;
+        lastWrittenSeq = seq;
+        ServerLogger.info("storage", "Loaded " + orders.size() + " orders from the journal (snapshot at event " + snapshotSeq + ", last event " + seq + ")");
+        return orders.values();
+    }
+
+    // Applies the events of one journal file that are newer than the snapshot, returns the last event number
+    private long replay(Path path, long snapshotSeq, Map<Integer, Order> orders) throws IOException {
+        if (!Files.exists(path)) {
+            return 0;
+        }
+        byte[] bytes = Files.readAllBytes(path);
+        long seq = 0;
+        int start = 0;
+        while (start < bytes.length) {
+            int end = start;
+            while (end < bytes.length && bytes[end] != '\n') {
+                end++;
+            }
+            JsonObject event = end < bytes.length ? parse(new String(bytes, start, end - start, StandardCharsets.UTF_8)) : null;
+            if (event == null) {
+                if (end < bytes.length - 1) {
+                    // Acknowledged events follow, cutting here would lose them
+                    throw new IOException("Unreadable event at byte " + start + " of " + path + " with more events after it, the journal is corrupt");
+                }
+                // The server stopped in the middle of writing this event, it was never acknowledged
+                ServerLogger.warn("storage", "Cutting off a torn event at byte " + start + " of " + path);
+                try (FileChannel file = FileChannel.open(path, StandardOpenOption.WRITE)) {
+                    file.truncate(start);
+                }
+                break;
+            }
+            seq = event.get("seq").getAsLong();
+            if (seq > snapshotSeq) {
+                apply(event, orders);
+            }
+            start = end + 1;
+        }
+        return seq;
+    }
+
+    private static JsonObject parse(String line) {
+        try {
+            return JsonParser.parseString(line).getAsJsonObject();
+        } catch (JsonParseException | IllegalStateException e) {
+            return null;
+        }
+    }
+
+    private void apply(JsonObject event, Map<Integer, Order> orders) {
+        if ("placed".equals(event.get("event").getAsString())) {
+            Order order = gson.fromJson(event.get("order"), Order.class);
+            orders.put(order.getOrderId(), order);
+            return;
+        }
+        Order order = orders.get(event.get("orderId").getAsInt());
+        if (order == null) {
+            ServerLogger.warn("storage", "Journal event for unknown order " + event.get("orderId"));
+            return;
+        }
+        order.setStatus(event.get("status").getAsString());
+        order.setDeliveryPerson(event.has("courier") ? event.get("courier").getAsString() : null);
+    }
+
+    // Starts the writer thread and compacts what load read into a fresh snapshot
+    public synchronized void start() throws IOException {
+        if (channel != null) {
+            return;
+        }
+        Files.createDirectories(journalPath.getParent());
+        channel = FileChannel.open(journalPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        committedSize = channel.size();
+        compact(); // The writer thread is not running yet
+        Thread.ofPlatform().name("order-journal").daemon().start(this::writeLoop);
+    }
+
+    // Records a new order and, once it is on disk, adds it to the store, which tells the order listeners
+    public void placed(Order order) throws IOException {
+        Pending pending;
+        CompletableFuture<Void> stored = new CompletableFuture<>();
+        synchronized (appendLock) {
+            JsonObject event = newEvent("placed");
+            event.add("order", gson.toJsonTree(order));
+            unstored.put(lastSeq, stored); // Before the writer thread can see the event, so a snapshot waits for it
+            pending = enqueue(event);
+        }
+        try {
+            await(pending);
+            store.add(order);
+        } finally {
+            unstored.remove(pending.seq());
+            stored.complete(null);
+        }
+    }
+
+    // Records an order's current status and courier, returns once it is on disk.
+    // The store holds the new status already.
+    public void statusChanged(Order order) throws IOException {
+        Pending pending;
+        synchronized (appendLock) {
+            JsonObject event = newEvent("status");
+            event.addProperty("orderId", order.getOrderId());
+            event.addProperty("status", order.getStatus()); // Read under the lock, so the last event has the latest status
+            if (order.getDeliveryPerson() != null) {
+                event.addProperty("courier", order.getDeliveryPerson());
+            }
+            pending = enqueue(event);
+        }
+        await(pending);
+    }
+
+    // Starts an event with the next number, the caller holds appendLock
+    private JsonObject newEvent(String type) {
+        JsonObject event = new JsonObject();
+        event.addProperty("seq", ++lastSeq);
+        event.addProperty("event", type);
+        return event;
+    }
+
+    // Hands an event to the writer thread, the caller holds appendLock so events are queued in number order
+    private Pending enqueue(JsonObject event) {
+        Pending pending = new Pending(event.get("seq").getAsLong(), (event + "\n").getBytes(StandardCharsets.UTF_8), new CompletableFuture<>());
+        queue.add(pending);
+        return pending;
+    }
+
+    // Waits until the writer thread wrote an event. Not interruptible: the writer thread always finishes the event,
+    // and giving up early would report a failure for an event that may still reach the disk.
+    private void await(Pending pending) throws IOException {
+        try {
+            pending.written().join();
+        } catch (CompletionException e) {
+            throw new IOException("Could not write to the order journal", e.getCause());
+        }
+    }
+
+    private void writeLoop() {
+        List<Pending> group = new ArrayList<>();
+        while (true) {
+            try {
+                group.add(queue.take());
+                queue.drainTo(group);
+                commit(group);
+            } catch (InterruptedException e) {
+                return;
+            } catch (IOException | RuntimeException e) {
+                ServerLogger.error("storage", "Could not write " + group.size() + " order events", e);
+                for (Pending pending : group) {
+                    pending.written().completeExceptionally(e);
+                }
+            }
+            group.clear();
+        }
+    }
+
+    // Writes one group of events, forces it to disk and lets its writers continue
+    private void commit(List<Pending> group) throws IOException {
+        if (channel.size() != committedSize) {
+            // Part of a failed group is still in the file, no group is written until it is cut off
+            channel.truncate(committedSize);
+            ServerLogger.warn("storage", "Cut the order journal back to the last acknowledged event at byte " + committedSize);
+        }
+        int size = 0;
+        for (Pending pending : group) {
+            size += pending.line().length;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        for (Pending pending : group) {
+            buffer.put(pending.line());
+        }
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        if (FORCE_ON_COMMIT) {
+            channel.force(false);
+        }
+        committedSize = channel.size();
+        lastWrittenSeq = group.get(group.size() - 1).seq();
+        events.addAndGet(group.size());
+        commits.incrementAndGet();
+        for (Pending pending : group) {
+            pending.written().complete(null);
+        }
+        eventsSinceSnapshot += group.size();
+        if (eventsSinceSnapshot >= SNAPSHOT_EVERY_EVENTS && !snapshotRunning) {
+            compact();
+        }
+    }
+
+    // Sets the journal aside and writes a snapshot in the background, runs on the writer thread
+    private void compact() throws IOException {
+        if (!Files.exists(previousPath)) {
+            channel.close();
+            try {
+                Files.move(journalPath, previousPath, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                // The new journal, or the old one again if the move failed
+                channel = FileChannel.open(journalPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+                committedSize = channel.size();
+            }
+        } // Otherwise an earlier snapshot failed, the set aside file stays until one succeeds
+        long upTo = lastWrittenSeq; // The last event in the set aside file
+        eventsSinceSnapshot = 0;
+        snapshotRunning = true;
+        Thread.ofPlatform().name("order-snapshot").daemon().start(() -> {
+            try {
+                awaitStored(upTo);
+                writeSnapshot(upTo);
+                Files.deleteIfExists(previousPath);
+                snapshots.incrementAndGet();
+            } catch (IOException | InterruptedException | RuntimeException e) {
+                ServerLogger.error("storage", "Could not write the order snapshot", e);
+            } finally {
+                snapshotRunning = false;
+            }
+        });
+    }
+
+    // Waits until the orders of the placed events up to this number are in the store, their writers are about to add them
+    private void awaitStored(long upTo) throws IOException, InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(STORE_WAIT_MILLIS);
+        for (Map.Entry<Long, CompletableFuture<Void>> entry : unstored.headMap(upTo, true).entrySet()) {
+            try {
+                entry.getValue().get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+            } catch (TimeoutException | ExecutionException e) {
+                throw new IOException("The order of journal event " + entry.getKey() + " is not in the store after " + STORE_WAIT_MILLIS + " ms", e);
+            }
+        }
+    }
+
+    private void writeSnapshot(long upTo) throws IOException {
+        Path temp = snapshotPath.resolveSibling(snapshotPath.getFileName() + ".tmp");
+        Collection<Order> orders = store.getAll();
+        try (BufferedWriter writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+            JsonObject header = new JsonObject();
+            header.addProperty("seq", upTo);
+            header.addProperty("orders", orders.size());
+            writer.write(header.toString());
+            writer.newLine();
+            for (Order order : orders) {
+                writer.write(gson.toJson(order));
+                writer.newLine();
+            }
+        }
+        try (FileChannel file = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+            file.force(true);
+        }
+        Files.move(temp, snapshotPath, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        ServerLogger.info("storage", "Wrote a snapshot of " + orders.size() + " orders up to journal event " + upTo);
+    }
+
+    // Returns the journal counters, served by the getServerStats request
+    public long getEventCount() {
+        return events.get();
+    }
+
+    public long getCommitCount() {
+        return commits.get();
+    }
+
+    public long getSnapshotCount() {
+        return snapshots.get();
+    }
+}
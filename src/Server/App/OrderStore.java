@@ -0,0 +1,343 @@
+// Group: 6
+package Server.App;
+
+import Server.Models.Order;
+import Server.Models.OrderStatus;
+import Server.Utilities.GeoGrid;
+import Server.Utilities.ServerLogger;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+
+/**
+ * OrderStore holds every order of the server once, keyed by order ID.
+ * Secondary indexes by status, restaurant, restaurant and status, customer and courier are kept next to it,
+ * so queries never scan all orders and a status change only moves the order between two index buckets.
+ * Orders are mutable, so after changing an order the caller puts it again and the store moves it to the
+ * buckets of its new values. Writers hold the write lock and queries hold the read lock while copying,
+ * so every query returns a consistent snapshot (an order is never seen in two statuses at once).
+ * Each bucket lists its orders in the order they entered it.
+ * Status changes go through transition: the order's status is switched with a compare-and-set, so when
+ * several threads race for the same change (two couriers picking up one order) exactly one wins and
+ * the others are rejected without any lock being held. Listeners hear about every new order and status change,
+ * a status change only once its caller made it durable and called announce.
+ * Orders that are ready for pickup are also kept in a spatial grid by their pickup location, so couriers
+ * can search for nearby orders without measuring the distance to every ready order (see GeoGrid).
+ */
+public class OrderStore {
+    // Configuration
+    public static final double READY_GRID_CELL_KM = 2; // Grid cell size for ready orders, couriers search a few km around them
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Map<Integer, Entry> byId = new HashMap<>();
+    private final Index byStatus = new Index();
+    private final Index byRestaurant = new Index();
+    private final Index byRestaurantStatus = new Index(); // Key is restaurant + '\0' + status
+    private final Index byCustomer = new Index();
+    private final Index byCourier = new Index();
+    private final GeoGrid<Order> readyByLocation = new GeoGrid<>(READY_GRID_CELL_KM);
+    private final Map<Integer, Order> readyWithoutLocation = new LinkedHashMap<>(); // Ready orders couriers can never find
+    private final List<OrderListener> listeners = new CopyOnWriteArrayList<>();
+
+    // Notified after an order was added or changed status, on the thread that made the change
+    public interface OrderListener {
+        void onStatusChanged(Order order, OrderStatus from, OrderStatus to); // "from" is null for a new order
+    }
+
+    // The indexed values of an order, needed to find its old buckets after the order was changed
+    private static class Entry {
+        final Order order;
+        String status;
+        String restaurant;
+        String customer;
+        String courier;
+        boolean located; // In the ready-order grid
+
+        Entry(Order order) {
+            this.order = order;
+        }
+    }
+
+    // Buckets of orders by one key, each bucket keeps insertion order and removes in O(1)
+    private static class Index {
+        private final Map<String, LinkedHashMap<Integer, Order>> buckets = new HashMap<>();
+
+        void add(String key, Order order) {
+            if (key != null) {
+                buckets.computeIfAbsent(key, k -> new LinkedHashMap<>()).put(order.getOrderId(), order);
+            }
+        }
+
+        void remove(String key, Order order) {
+            if (key == null) {
+                return;
+            }
+            LinkedHashMap<Integer, Order> bucket = buckets.get(key);
+            if (bucket != null) {
+                bucket.remove(order.getOrderId());
+                if (bucket.isEmpty()) {
+                    buckets.remove(key);
+                }
+            }
+        }
+
+        // Moves an order from the bucket of its old key to the bucket of its new key
+        String move(String oldKey, String newKey, Order order) {
+            if (!Objects.equals(oldKey, newKey)) {
+                remove(oldKey, order);
+                add(newKey, order);
+            }
+            return newKey;
+        }
+
+        List<Order> snapshot(String key) {
+            LinkedHashMap<Integer, Order> bucket = key == null ? null : buckets.get(key);
+            return bucket == null ? new ArrayList<>() : new ArrayList<>(bucket.values());
+        }
+
+        int size(String key) {
+            LinkedHashMap<Integer, Order> bucket = buckets.get(key);
+            return bucket == null ? 0 : bucket.size();
+        }
+    }
+
+    public void addListener(OrderListener listener) {
+        listeners.add(listener);
+    }
+
+    // Stores a new order and tells the listeners about it
+    public void add(Order order) {
+        put(order);
+        notifyListeners(order, null, order.getOrderStatus());
+    }
+
+    // Moves an order from one status to the next, returns false if the lifecycle does not allow it
+    // or another thread changed the status first
+    public boolean transition(Order order, OrderStatus from, OrderStatus to) {
+        return transition(order, from, to, null);
+    }
+
+    // Same as above, "update" runs only if this call won the transition, before the order is re-indexed
+    // (for example to set the courier of a picked up order). The listeners are not told yet, the caller
+    // records the change and then calls announce.
+    public boolean transition(Order order, OrderStatus from, OrderStatus to, Consumer<Order> update) {
+        if (!order.transition(from, to)) {
+            return false;
+        }
+        if (update != null) {
+            update.accept(order);
+        }
+        put(order);
+        return true;
+    }
+
+    // Undoes a transition whose change could not be recorded: moves the order back, runs "undo" to reverse
+    // what the transition's update did and re-indexes it. The listeners never heard of the change.
+    public void revert(Order order, OrderStatus from, OrderStatus to, Consumer<Order> undo) {
+        if (!order.revertTransition(from, to)) {
+            ServerLogger.warn("order", "Order " + order.getOrderId() + " changed again before its failed move to " + to.getLabel() + " was undone");
+            return;
+        }
+        if (undo != null) {
+            undo.accept(order);
+        }
+        put(order);
+    }
+
+    // Tells the listeners about a status change made with transition, once the change is durable
+    public void announce(Order order, OrderStatus from, OrderStatus to) {
+        notifyListeners(order, from, to);
+    }
+
+    private void notifyListeners(Order order, OrderStatus from, OrderStatus to) {
+        for (OrderListener listener : listeners) {
+            try {
+                listener.onStatusChanged(order, from, to);
+            } catch (RuntimeException e) {
+                ServerLogger.error("order", "Order listener failed for order " + order.getOrderId(), e);
+            }
+        }
+    }
+
+    // Stores a new order or re-indexes a stored one after it changed.
+    // If another object with the same ID is stored, it is replaced by this one.
+    public void put(Order order) {
+        lock.writeLock().lock();
+        try {
+            Entry entry = byId.get(order.getOrderId());
+            if (entry == null || entry.order != order) {
+                if (entry != null) {
+                    unindex(entry);
+                }
+                entry = new Entry(order);
+                byId.put(order.getOrderId(), entry);
+            }
+            index(entry);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // Stores the order unless one with the same ID is stored already, returns the stored order
+    public Order putIfAbsent(Order order) {
+        lock.writeLock().lock();
+        try {
+            Entry entry = byId.get(order.getOrderId());
+            if (entry != null) {
+                return entry.order;
+            }
+            entry = new Entry(order);
+            byId.put(order.getOrderId(), entry);
+            index(entry);
+            return order;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // Puts the entry into the buckets of the order's current values, leaving the old ones
+    private void index(Entry entry) {
+        Order order = entry.order;
+        String status = order.getStatus();
+        String restaurant = order.getRestaurantName();
+        byRestaurantStatus.move(restaurantStatusKey(entry.restaurant, entry.status), restaurantStatusKey(restaurant, status), order);
+        entry.status = byStatus.move(entry.status, status, order);
+        entry.restaurant = byRestaurant.move(entry.restaurant, restaurant, order);
+        entry.customer = byCustomer.move(entry.customer, order.getCustomerName(), order);
+        entry.courier = byCourier.move(entry.courier, order.getDeliveryPerson(), order);
+        boolean ready = OrderStatus.READY_FOR_PICKUP.getLabel().equals(status);
+        double[] location = order.getLocation();
+        if (ready && location != null) {
+            if (!entry.located) {
+                readyByLocation.put(order, location[0], location[1]);
+                entry.located = true;
+            }
+        } else if (entry.located) {
+            readyByLocation.remove(order);
+            entry.located = false;
+        }
+        if (ready && location == null) {
+            readyWithoutLocation.put(order.getOrderId(), order);
+        } else {
+            readyWithoutLocation.remove(order.getOrderId(), order);
+        }
+    }
+
+    private void unindex(Entry entry) {
+        byStatus.remove(entry.status, entry.order);
+        byRestaurantStatus.remove(restaurantStatusKey(entry.restaurant, entry.status), entry.order);
+        byRestaurant.remove(entry.restaurant, entry.order);
+        byCustomer.remove(entry.customer, entry.order);
+        byCourier.remove(entry.courier, entry.order);
+        if (entry.located) {
+            readyByLocation.remove(entry.order);
+        }
+        readyWithoutLocation.remove(entry.order.getOrderId(), entry.order);
+    }
+
+    private static String restaurantStatusKey(String restaurant, String status) {
+        return restaurant == null || status == null ? null : restaurant + '\0' + status;
+    }
+
+    // Returns the order with this ID, or null
+    public Order get(int orderId) {
+        lock.readLock().lock();
+        try {
+            Entry entry = byId.get(orderId);
+            return entry == null ? null : entry.order;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Returns the orders that currently have this status
+    public List<Order> getByStatus(OrderStatus status) {
+        return snapshot(byStatus, status.getLabel());
+    }
+
+    // Returns all orders of a restaurant
+    public List<Order> getByRestaurant(String restaurant) {
+        return snapshot(byRestaurant, restaurant);
+    }
+
+    // Returns the orders of a restaurant that currently have this status
+    public List<Order> getByRestaurant(String restaurant, OrderStatus status) {
+        return snapshot(byRestaurantStatus, restaurantStatusKey(restaurant, status.getLabel()));
+    }
+
+    // Returns all orders of a customer
+    public List<Order> getByCustomer(String customer) {
+        return snapshot(byCustomer, customer);
+    }
+
+    // Returns all orders a courier picked up
+    public List<Order> getByCourier(String courier) {
+        return snapshot(byCourier, courier);
+    }
+
+    // Returns the ready orders whose pickup location is within radiusKm of a point, nearest first,
+    // at most limit of them (0 for all)
+    public List<GeoGrid.Hit<Order>> getReadyNear(double lat, double lon, double radiusKm, int limit) {
+        return readyByLocation.within(lat, lon, radiusKm, limit);
+    }
+
+    // Returns the ready orders that have no pickup location
+    public List<Order> getReadyWithoutLocation() {
+        lock.readLock().lock();
+        try {
+            return new ArrayList<>(readyWithoutLocation.values());
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Returns the number of orders that currently have this status
+    public int countByStatus(OrderStatus status) {
+        lock.readLock().lock();
+        try {
+            return byStatus.size(status.getLabel());
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Returns every stored order
+    public Collection<Order> getAll() {
+        lock.readLock().lock();
+        try {
+            List<Order> orders = new ArrayList<>(byId.size());
+            for (Entry entry : byId.values()) {
+                orders.add(entry.order);
+            }
+            return orders;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return byId.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private List<Order> snapshot(Index index, String key) {
+        lock.readLock().lock();
+        try {
+            return index.snapshot(key);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+}
@@ -0,0 +1,157 @@
+// Group: 6
+package Server.App;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * OutboundQueue is the single outbound channel of a connection.
+ * Responses and pushes from any thread are queued here as encoded buffers and only the connection's
+ * writer (the reactor thread or the socket's writer thread) takes them out, so writes never interleave.
+ * The queued bytes are counted: responses are always accepted, but once more than HIGH_WATERMARK bytes
+ * wait for a slow client the connection stops reading requests until the queue drained below LOW_WATERMARK.
+ * Pushes are never waited for, a push that would grow the queue beyond PUSH_LIMIT is dropped and counted.
+ */
+class OutboundQueue {
+    static final long HIGH_WATERMARK = 1024 * 1024; // Stop reading requests above this many queued bytes
+    static final long LOW_WATERMARK = 256 * 1024; // Resume reading below this
+    static final long PUSH_LIMIT = 4 * 1024 * 1024; // Pushes beyond this are dropped
+
+    private static final ThreadLocal<ResponseBuffer> RESPONSE_BUFFERS = ThreadLocal.withInitial(ResponseBuffer::new); // Reused by each sending thread
+
+    private final ReentrantLock lock = new ReentrantLock(); // Not synchronized, so waiting virtual threads do not pin their carrier
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition drained = lock.newCondition();
+    private final ArrayDeque<ByteBuffer> buffers = new ArrayDeque<>(); // Guarded by lock
+    private long queuedBytes; // Guarded by lock
+    private long droppedPushes; // Guarded by lock
+    private boolean closed; // Guarded by lock
+
+    // Encodes the response on the calling thread and queues it, see add below
+    boolean add(Response response, boolean framed, boolean push) throws IOException {
+        ByteBuffer encoded = RESPONSE_BUFFERS.get().encode(response, framed);
+        byte[] attachment = framed ? response.getAttachment() : null;
+        return add(encoded, attachment == null ? null : ByteBuffer.wrap(attachment), push);
+    }
+
+    // Queues an encoded message, the attachment (may be null) stays right behind its header.
+    // Returns false if the queue is closed, or if a push was dropped because the client does not keep up.
+    boolean add(ByteBuffer encoded, ByteBuffer attachment, boolean push) {
+        long size = encoded.remaining() + (attachment == null ? 0 : attachment.remaining());
+        lock.lock();
+        try {
+            if (closed) {
+                return false;
+            }
+            if (push && queuedBytes + size > PUSH_LIMIT) {
+                droppedPushes++;
+                return false;
+            }
+            buffers.add(encoded);
+            if (attachment != null) {
+                buffers.add(attachment);
+            }
+            queuedBytes += size;
+            notEmpty.signal();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Returns the buffer being written, or null if nothing is queued
+    ByteBuffer peek() {
+        lock.lock();
+        try {
+            return buffers.peek();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Removes the buffer returned by peek or take once it was completely written
+    void remove() {
+        lock.lock();
+        try {
+            ByteBuffer written = buffers.poll();
+            if (written != null) {
+                queuedBytes -= written.limit();
+                if (queuedBytes < LOW_WATERMARK) {
+                    drained.signalAll();
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Waits for the next buffer to write, returns null once the queue was closed
+    ByteBuffer take() throws InterruptedException {
+        lock.lock();
+        try {
+            while (buffers.isEmpty() && !closed) {
+                notEmpty.await();
+            }
+            return closed ? null : buffers.peek();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Blocks a reading thread while the client is behind on its output
+    void awaitWritable() throws InterruptedException {
+        lock.lock();
+        try {
+            while (queuedBytes > HIGH_WATERMARK && !closed) {
+                drained.await();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Returns true if nothing is waiting to be written
+    boolean isEmpty() {
+        lock.lock();
+        try {
+            return buffers.isEmpty();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    long getQueuedBytes() {
+        lock.lock();
+        try {
+            return queuedBytes;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    long getDroppedPushes() {
+        lock.lock();
+        try {
+            return droppedPushes;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Drops everything still queued and wakes up the writer and any waiting reader
+    void close() {
+        lock.lock();
+        try {
+            closed = true;
+            buffers.clear();
+            queuedBytes = 0;
+            notEmpty.signalAll();
+            drained.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+}
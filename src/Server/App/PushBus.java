@@ -0,0 +1,148 @@
+// Group: 6
+package Server.App;
+
+import Server.Models.Order;
+import Server.Models.OrderStatus;
+import Server.Utilities.ServerLogger;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * PushBus delivers server initiated events to the connections of logged-in users.
+ * A connection subscribes for its user when the user logs in and is removed when it closes or logs out.
+ * Publishers (any handler thread) only hand the event to each connection's outbound queue and never
+ * wait for a client; events for a client that does not keep up are dropped by its queue (see OutboundQueue).
+ * Restaurants get "update" events for new orders, customers get "orderStatus" events whenever one of
+ * their orders changes status, and every logged-in courier gets a "newDeliveryOrder" event when an order is ready for pickup.
+ */
+public class PushBus {
+    private static final Map<String, Set<ClientConnection>> userConnections = new ConcurrentHashMap<>(); // Username -> its connections
+    private static final Map<ClientConnection, Set<String>> subscriptions = new ConcurrentHashMap<>(); // Connection -> usernames, for cleanup
+    private static final Set<ClientConnection> courierConnections = ConcurrentHashMap.newKeySet();
+    private static final AtomicLong delivered = new AtomicLong();
+    private static final AtomicLong dropped = new AtomicLong();
+
+    private PushBus() {
+    }
+
+    // Subscribes a connection to the events of a user
+    public static void subscribe(String username, ClientConnection connection) {
+        userConnections.compute(username, (name, connections) -> {
+            if (connections == null) {
+                connections = ConcurrentHashMap.newKeySet();
+            }
+            connections.add(connection);
+            return connections;
+        });
+        subscriptions.computeIfAbsent(connection, c -> ConcurrentHashMap.newKeySet()).add(username);
+    }
+
+    // Subscribes a courier's connection to new delivery orders
+    public static void subscribeCourier(String username, ClientConnection connection) {
+        subscribe(username, connection);
+        courierConnections.add(connection);
+    }
+
+    // Removes a connection from the events of one user, used on logout
+    public static void unsubscribe(String username, ClientConnection connection) {
+        removeUserConnection(username, connection);
+        Set<String> usernames = subscriptions.get(connection);
+        if (usernames != null) {
+            usernames.remove(username);
+        }
+        courierConnections.remove(connection);
+    }
+
+    // Removes a connection from every subscription, called when the connection closes
+    public static void unsubscribe(ClientConnection connection) {
+        Set<String> usernames = subscriptions.remove(connection);
+        if (usernames != null) {
+            for (String username : usernames) {
+                removeUserConnection(username, connection);
+            }
+        }
+        courierConnections.remove(connection);
+    }
+
+    private static void removeUserConnection(String username, ClientConnection connection) {
+        userConnections.computeIfPresent(username, (name, connections) -> {
+            connections.remove(connection);
+            return connections.isEmpty() ? null : connections;
+        });
+    }
+
+    // Pushes an event to every connection of a user, returns the number of connections that took it
+    public static int publishToUser(String username, Response event) {
+        Set<ClientConnection> connections = userConnections.get(username);
+        if (connections == null) {
+            return 0;
+        }
+        int count = 0;
+        for (ClientConnection connection : connections) {
+            if (deliver(connection, event)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    // Pushes an event to every logged-in courier, returns the number of connections that took it
+    public static int publishToCouriers(Response event) {
+        int count = 0;
+        for (ClientConnection connection : courierConnections) {
+            if (deliver(connection, event)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    // Order listener (see OrderStore): the restaurant hears about new orders, the customer about every
+    // status change and the couriers about orders that became ready for pickup
+    public static void onOrderStatusChanged(Order order, OrderStatus from, OrderStatus to) {
+        if (from == null) {
+            publishToUser(order.getRestaurantName(), Response.message(ResponseType.UPDATE, true, "New order received"));
+        }
+        publishOrderStatus(order);
+        if (to == OrderStatus.READY_FOR_PICKUP) {
+            publishReadyOrder(order);
+        }
+    }
+
+    // Tells the customer of an order about its current status
+    public static void publishOrderStatus(Order order) {
+        publishToUser(order.getCustomerName(), Response.payload(ResponseType.ORDER_STATUS, order));
+    }
+
+    // Tells every courier about an order that is ready for pickup
+    public static void publishReadyOrder(Order order) {
+        publishToCouriers(Response.payload(ResponseType.NEW_DELIVERY_ORDER, order));
+    }
+
+    private static boolean deliver(ClientConnection connection, Response event) {
+        if (connection.isClosed()) {
+            unsubscribe(connection);
+            return false;
+        }
+        if (connection.push(event)) {
+            delivered.incrementAndGet();
+            return true;
+        }
+        dropped.incrementAndGet();
+        ServerLogger.warn("push", "Dropped " + event.getType().getWireName() + " event for slow client " + connection.getRemoteAddress());
+        return false;
+    }
+
+    // Returns the number of events handed to connections
+    public static long getDeliveredCount() {
+        return delivered.get();
+    }
+
+    // Returns the number of events dropped because a client's outbound queue was full
+    public static long getDroppedCount() {
+        return dropped.get();
+    }
+}
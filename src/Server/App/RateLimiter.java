@@ -0,0 +1,72 @@
+// Group: 6
+package Server.App;
+
+import Server.Utilities.TokenBucket;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+
+// RateLimiter holds the request limits of the server: a token bucket per connection, a token bucket per user
+// and a server-wide cap on requests that are being processed or waiting for a worker.
+// A request is charged to a user only once it authenticated as that user, unauthenticated requests are only
+// limited by their connection.
+public class RateLimiter {
+    // Configuration
+    public static final double CONNECTION_BURST = 40; // Requests a single connection may send back to back
+    public static final double CONNECTION_RATE = 20; // Sustained requests per second for a single connection
+    public static final double USER_BURST = 60; // Requests a single user may send back to back (over all connections)
+    public static final double USER_RATE = 30; // Sustained requests per second for a single user
+    public static final int MAX_IN_FLIGHT_REQUESTS = 500; // Server-wide admission limit
+    private static final int USER_BUCKET_CLEANUP_THRESHOLD = 10_000; // Idle user buckets are dropped above this size
+
+    private static final Map<String, TokenBucket> userBuckets = new ConcurrentHashMap<>();
+    private static final Semaphore inFlight = new Semaphore(MAX_IN_FLIGHT_REQUESTS);
+
+    // Creates the bucket that limits a single connection
+    public static TokenBucket newConnectionBucket() {
+        return new TokenBucket(CONNECTION_BURST, CONNECTION_RATE);
+    }
+
+    // Takes a token from the bucket of an authenticated user, throws UserRateExceeded if the user has none left
+    public static void acquireForUser(String username) {
+        if (userBuckets.size() > USER_BUCKET_CLEANUP_THRESHOLD) {
+            userBuckets.values().removeIf(TokenBucket::isFull);
+        }
+        TokenBucket bucket = userBuckets.computeIfAbsent(username, name -> new TokenBucket(USER_BURST, USER_RATE));
+        if (!bucket.tryAcquire()) {
+            throw new UserRateExceeded(bucket.millisUntilNextToken());
+        }
+    }
+
+    // Thrown by acquireForUser while a handler authenticates, the request is answered as rate limited
+    public static class UserRateExceeded extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        private final long retryAfterMillis;
+
+        public UserRateExceeded(long retryAfterMillis) {
+            super("User rate exceeded");
+            this.retryAfterMillis = retryAfterMillis;
+        }
+
+        public long getRetryAfterMillis() {
+            return retryAfterMillis;
+        }
+    }
+
+    // Admits one request into the server, returns false if the server is saturated
+    public static boolean tryAdmit() {
+        return inFlight.tryAcquire();
+    }
+
+    // Must be called once for every admitted request after its response was produced
+    public static void release() {
+        inFlight.release();
+    }
+
+    // Returns the number of requests currently admitted
+    public static int getInFlightRequests() {
+        return MAX_IN_FLIGHT_REQUESTS - inFlight.availablePermits();
+    }
+}
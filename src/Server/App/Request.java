@@ -0,0 +1,330 @@
+// Group: 6
+package Server.App;
+
+import Server.Models.Order;
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.google.gson.TypeAdapter;
+import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Request is a single decoded client request.
+ * A request line is read once with a streaming JsonReader: plain fields are kept as strings,
+ * "items" and "order" are decoded straight into model objects, and every field is checked against
+ * the schema of the request type before any handler sees the request: unknown fields are rejected,
+ * required fields must be sent and integer, number and boolean fields must parse.
+ * A request that fails these checks is still returned, with an error and whatever requestId was read.
+ * Requests that arrive as frames may carry one raw attachment, named by the header's "attachment" field.
+ */
+public class Request {
+    private static final TypeToken<List<Order.Item>> ITEM_LIST_TYPE = new TypeToken<>() {};
+
+    private final Map<String, String> fields = new HashMap<>(); // Plain fields (strings, numbers and booleans as text)
+    private final Set<String> fieldNames = new HashSet<>(); // Every field name seen, to reject duplicates
+    private String typeName;
+    private RequestType type;
+    private Object requestId; // Client's correlation ID (String or Long), null if not sent
+    private List<Order.Item> items;
+    private Order order;
+    private String attachmentField; // Field the attachment stands in for, for example "image"
+    private byte[] attachment;
+    private String error; // First problem found while decoding, null if the request is valid
+
+    private Request() {
+    }
+
+    // Decodes and validates one request line
+    public static Request parse(String line, Gson gson) {
+        return parse(line, null, gson);
+    }
+
+    // Decodes and validates a request header and its optional raw attachment
+    public static Request parse(String line, byte[] attachment, Gson gson) {
+        Request request = new Request();
+        request.attachment = attachment;
+        try (JsonReader in = new JsonReader(new StringReader(line))) {
+            request.readFrom(in, gson);
+            if (in.peek() != JsonToken.END_DOCUMENT) {
+                request.reject("Invalid request format");
+            }
+        } catch (IOException | IllegalStateException | JsonParseException | NumberFormatException e) {
+            request.reject("Invalid request format");
+        }
+        if (request.error == null) {
+            request.validate();
+        }
+        return request;
+    }
+
+    private void readFrom(JsonReader in, Gson gson) throws IOException {
+        in.beginObject();
+        while (in.hasNext()) {
+            String name = in.nextName();
+            if (!fieldNames.add(name)) {
+                reject("Duplicate field \"" + name + "\"");
+                in.skipValue();
+                continue;
+            }
+            switch (name) {
+                case "type" -> {
+                    if (in.peek() == JsonToken.STRING) {
+                        typeName = in.nextString();
+                    } else {
+                        in.skipValue();
+                    }
+                }
+                case "requestId" -> requestId = readRequestId(in);
+                case "items" -> items = readItems(in, gson);
+                case "order" -> order = readOrder(in, gson);
+                case "attachment" -> attachmentField = readScalar(in, name);
+                default -> fields.put(name, readScalar(in, name));
+            }
+        }
+        in.endObject();
+    }
+
+    // Checks the request type, that every field belongs to it, that required fields are sent and typed fields parse
+    private void validate() {
+        if (typeName == null) {
+            reject("Invalid request format");
+            return;
+        }
+        type = RequestType.fromWireName(typeName);
+        if (type == null) {
+            return; // Unknown types are answered by the default handler
+        }
+        for (String name : fieldNames) {
+            if (!type.allowsField(name)) {
+                reject("Unknown field \"" + name + "\" for request type " + typeName);
+                return;
+            }
+        }
+        if (attachment != null || attachmentField != null) {
+            if (attachment == null || attachmentField == null || !type.isBinaryField(attachmentField)) {
+                reject("Attachment must name a binary field of request type " + typeName);
+            } else if (fieldNames.contains(attachmentField)) {
+                reject("Field \"" + attachmentField + "\" sent both inline and as attachment");
+            }
+        }
+        for (String name : type.getRequiredFields()) {
+            if (!has(name)) {
+                reject("Missing field \"" + name + "\" for request type " + typeName);
+                return;
+            }
+        }
+        for (Map.Entry<String, String> field : fields.entrySet()) {
+            String value = field.getValue();
+            if (value == null || value.isEmpty()) {
+                continue; // Optional and left out, handlers use their default
+            }
+            String name = field.getKey();
+            try {
+                switch (type.getFieldKind(name)) {
+                    case INTEGER -> parseInt(value);
+                    case NUMBER -> parseNumber(value);
+                    case BOOLEAN -> parseBoolean(value);
+                    case TEXT -> {
+                    }
+                }
+            } catch (IllegalArgumentException e) {
+                reject("Field \"" + name + "\" " + e.getMessage());
+                return;
+            }
+        }
+    }
+
+    private static int parseInt(String value) {
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("must be an integer");
+        }
+    }
+
+    // Accepts what Double.parseDouble accepts, except NaN and the infinities
+    private static double parseNumber(String value) {
+        try {
+            double number = Double.parseDouble(value);
+            if (Double.isFinite(number)) {
+                return number;
+            }
+        } catch (NumberFormatException e) {
+            // Rejected below
+        }
+        throw new IllegalArgumentException("must be a number");
+    }
+
+    private static boolean parseBoolean(String value) {
+        String text = value.trim();
+        if (text.equalsIgnoreCase("true")) {
+            return true;
+        }
+        if (text.equalsIgnoreCase("false")) {
+            return false;
+        }
+        throw new IllegalArgumentException("must be true or false");
+    }
+
+    // Reads a string, number or boolean as text, other values are rejected
+    private String readScalar(JsonReader in, String name) throws IOException {
+        switch (in.peek()) {
+            case STRING, NUMBER -> {
+                return in.nextString();
+            }
+            case BOOLEAN -> {
+                return String.valueOf(in.nextBoolean());
+            }
+            case NULL -> {
+                in.nextNull();
+                return null;
+            }
+            default -> {
+                reject("Field \"" + name + "\" must be a string, number or boolean");
+                in.skipValue();
+                return null;
+            }
+        }
+    }
+
+    // Reads the correlation ID, integral numbers are kept as Long so they are echoed without a fraction
+    private Object readRequestId(JsonReader in) throws IOException {
+        switch (in.peek()) {
+            case STRING -> {
+                return in.nextString();
+            }
+            case NUMBER -> {
+                String number = in.nextString();
+                try {
+                    return Long.parseLong(number);
+                } catch (NumberFormatException e) {
+                    return Double.parseDouble(number);
+                }
+            }
+            default -> {
+                reject("Field \"requestId\" must be a string or number");
+                in.skipValue();
+                return null;
+            }
+        }
+    }
+
+    // Reads the ordered items as a list of Order.Item
+    private List<Order.Item> readItems(JsonReader in, Gson gson) throws IOException {
+        if (in.peek() != JsonToken.BEGIN_ARRAY) {
+            reject("Field \"items\" must be a list of items");
+            in.skipValue();
+            return null;
+        }
+        TypeAdapter<List<Order.Item>> adapter = gson.getAdapter(ITEM_LIST_TYPE);
+        return adapter.read(in);
+    }
+
+    // Reads an order, clients send it either as an object or as a string that holds the order's JSON
+    private Order readOrder(JsonReader in, Gson gson) throws IOException {
+        switch (in.peek()) {
+            case BEGIN_OBJECT -> {
+                return gson.getAdapter(Order.class).read(in);
+            }
+            case STRING -> {
+                return gson.fromJson(in.nextString(), Order.class);
+            }
+            default -> {
+                reject("Field \"order\" must be an order");
+                in.skipValue();
+                return null;
+            }
+        }
+    }
+
+    private void reject(String message) {
+        if (error == null) {
+            error = message;
+        }
+    }
+
+    // Returns the request type, or null if the type is missing or unknown
+    public RequestType getType() {
+        return type;
+    }
+
+    // Returns the "type" value as sent by the client
+    public String getTypeName() {
+        return typeName;
+    }
+
+    public Object getRequestId() {
+        return requestId;
+    }
+
+    // Returns true if the request passed decoding and validation
+    public boolean isValid() {
+        return error == null;
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    // Returns a plain field as text, or null if it was not sent
+    public String get(String name) {
+        return fields.get(name);
+    }
+
+    // Returns true if a plain field was sent with a non-empty value
+    public boolean has(String name) {
+        String value = fields.get(name);
+        return value != null && !value.isEmpty();
+    }
+
+    // Returns an integer field checked by validation, or the default if it was not sent
+    public int getInt(String name, int defaultValue) {
+        return has(name) ? parseInt(fields.get(name)) : defaultValue;
+    }
+
+    // Returns a number field checked by validation, or the default if it was not sent
+    public double getDouble(String name, double defaultValue) {
+        return has(name) ? parseNumber(fields.get(name)) : defaultValue;
+    }
+
+    // Returns a boolean field checked by validation, or the default if it was not sent
+    public boolean getBoolean(String name, boolean defaultValue) {
+        return has(name) ? parseBoolean(fields.get(name)) : defaultValue;
+    }
+
+    // Overrides a plain field, used by handlers that authenticate with a different password field
+    public void put(String name, String value) {
+        fields.put(name, value);
+    }
+
+    public List<Order.Item> getItems() {
+        return items;
+    }
+
+    public Order getOrder() {
+        return order;
+    }
+
+    // Returns a binary field: the raw attachment if it was sent as one, otherwise the decoded Base64 text of the field.
+    // Throws IllegalArgumentException if the text is not valid Base64.
+    public byte[] getBinary(String name) {
+        if (attachment != null && name.equals(attachmentField)) {
+            return attachment;
+        }
+        String encoded = fields.get(name);
+        if (encoded == null || encoded.isEmpty()) {
+            return null;
+        }
+        return Base64.getDecoder().decode(encoded);
+    }
+}
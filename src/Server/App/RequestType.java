@@ -0,0 +1,119 @@
+// Group: 6
+package Server.App;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+// RequestType is the "type" of a client request together with the fields that request may carry.
+// Every request may also carry "type", "requestId", "username", "password" and, in a frame, "attachment".
+// A field is listed as "name", "name:int", "name:number" or "name:boolean", a trailing "!" marks it as required.
+// Request checks these before any handler runs, so handlers read typed fields without parsing or null checks.
+public enum RequestType {
+    LOGIN("login", "userType"),
+    SIGNUP_CUSTOMER("signupCustomer", "address", "phoneNumber", "email"),
+    SIGNUP_RESTAURANT("signupRestaurant", "address", "phoneNumber", "email", "businessPhoneNumber", "cuisine"),
+    SIGNUP_DELIVERY("signupDelivery", "address", "phoneNumber", "email", "token"),
+    GET_RESTAURANTS("getRestaurants", "distance:number", "cuisine", "sendHome:boolean!", "address", "limit:int"),
+    GET_MENU("getMenu", "restaurantName", "version"),
+    PLACE_ORDER("placeOrder", "restaurantName", "items", "customerNote", "useSavedCard:boolean!", "creditCardNumber",
+            "expirationDate", "cvv", "sendHome:boolean!", "address", "totalAmount:number"),
+    UPDATE_MENU("updateMenu", "restaurantName", "itemName", "menuItemName", "price:number", "description", "isAvailable:boolean",
+            "image", "action!", "add"),
+    UPDATE_CREDIT_CARD("updateCreditCard", "creditCardNumber", "expirationDate", "cvv"),
+    GET_ORDERS_HISTORY("getOrdersHistory"),
+    MARK_ORDER_READY_FOR_PICKUP("markOrderReadyForPickup", "order"),
+    DISABLE_MENU_ITEM("disableMenuItem", "menuItemName"),
+    ENABLE_MENU_ITEM("enableMenuItem", "menuItemName"),
+    GET_CURRENT_ORDERS("getCurrentOrders"),
+    GET_AVAILABLE_CUISINES("getAvailableCuisines"),
+    CHANGE_PASSWORD("changePassword", "oldPassword", "newPassword"),
+    CHANGE_EMAIL("changeEmail", "newEmail"),
+    DISCONNECT("disconnect"),
+    UPLOAD_PROFILE_PICTURE("uploadProfilePicture", "profilePicture"),
+    GET_IMAGE("getImage", "imagePath"),
+    CHANGE_PARAMETER("changeParameter", "parameter", "newValue"),
+    DELETE_ACCOUNT("deleteAccount"),
+    GET_DELIVERY_ORDERS("getDeliveryOrders", "distance:number!", "address", "limit:int"),
+    PICKUP_ORDER("pickupOrder", "orderId:int!"),
+    CHECK_IF_ON_DELIVERY("checkIfOnDelivery"),
+    MARK_ORDER_DELIVERED("markOrderDelivered", "orderId:int"),
+    GET_USER_DATA("getUserData"),
+    GET_INCOME_DATA("getIncomeData"),
+    UPGRADE_PROTOCOL("upgradeProtocol", "protocol"),
+    PING("ping"),
+    PONG("pong"),
+    GET_SERVER_STATS("getServerStats"),
+    SEARCH_ITEMS("searchItems", "query", "cuisine", "minPrice:number", "maxPrice:number", "availableOnly:boolean",
+            "distance:number", "sendHome:boolean", "address", "limit:int");
+
+    private static final Set<String> COMMON_FIELDS = Set.of("type", "requestId", "username", "password", "sessionToken", "attachment");
+    private static final Set<String> BINARY_FIELDS = Set.of("image", "profilePicture"); // May arrive as a frame attachment
+    private static final Map<String, RequestType> BY_WIRE_NAME = new HashMap<>();
+
+    static {
+        for (RequestType type : values()) {
+            BY_WIRE_NAME.put(type.wireName, type);
+        }
+    }
+
+    // What a plain field must hold, TEXT fields are taken as sent
+    public enum FieldKind {
+        TEXT, INTEGER, NUMBER, BOOLEAN
+    }
+
+    private final String wireName;
+    private final Map<String, FieldKind> fields = new HashMap<>();
+    private final Set<String> requiredFields = new HashSet<>();
+
+    RequestType(String wireName, String... fieldSpecs) {
+        this.wireName = wireName;
+        for (String spec : fieldSpecs) {
+            String field = spec;
+            if (field.endsWith("!")) {
+                field = field.substring(0, field.length() - 1);
+                requiredFields.add(field.split(":")[0]);
+            }
+            String[] parts = field.split(":");
+            FieldKind kind = parts.length == 1 ? FieldKind.TEXT : switch (parts[1]) {
+                case "int" -> FieldKind.INTEGER;
+                case "number" -> FieldKind.NUMBER;
+                case "boolean" -> FieldKind.BOOLEAN;
+                default -> throw new IllegalArgumentException("Unknown field kind in \"" + spec + "\"");
+            };
+            fields.put(parts[0], kind);
+        }
+    }
+
+    // Returns the request type for a "type" value, or null if the server does not know it
+    public static RequestType fromWireName(String wireName) {
+        return BY_WIRE_NAME.get(wireName);
+    }
+
+    // Returns the value clients put into the "type" field
+    public String getWireName() {
+        return wireName;
+    }
+
+    // Returns true if a request of this type may carry the given field
+    public boolean allowsField(String field) {
+        return COMMON_FIELDS.contains(field) || fields.containsKey(field);
+    }
+
+    // Returns true if the field holds image bytes that a frame client may send as a raw attachment
+    public boolean isBinaryField(String field) {
+        return fields.containsKey(field) && BINARY_FIELDS.contains(field);
+    }
+
+    // Returns what the field must hold, TEXT for common fields and fields this type does not list
+    public FieldKind getFieldKind(String field) {
+        return fields.getOrDefault(field, FieldKind.TEXT);
+    }
+
+    // Returns the fields a request of this type must carry with a non-empty value
+    public Set<String> getRequiredFields() {
+        return Collections.unmodifiableSet(requiredFields);
+    }
+}
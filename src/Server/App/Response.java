@@ -0,0 +1,133 @@
+// Group: 6
+package Server.App;
+
+import com.google.gson.Gson;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.Base64;
+
+/**
+ * Response is a single server reply before it is encoded.
+ * It is written straight into the connection's output with a streaming JsonWriter, so no
+ * intermediate HashMap or String is built. Structured payloads (menus, orders, restaurant lists)
+ * are embedded in "message" as real JSON instead of a JSON string that contains escaped JSON.
+ */
+public class Response {
+    private final ResponseType type;
+    private final boolean success;
+    private final String message; // Plain text message, used when there is no payload
+    private final Object payload; // Structured payload, serialised by Gson into "message"
+    private final boolean hasPayload;
+    private final String payloadJson; // Payload that is already serialised, written into "message" as is
+    private String extraName; // Optional additional field (for example "imageData")
+    private String extraValue;
+    private String attachmentName; // Field that carries binary data (for example "imageData")
+    private byte[] attachment;
+    private Object requestId; // Client's correlation ID, echoed as the first field
+
+    private Response(ResponseType type, boolean success, String message, Object payload, boolean hasPayload, String payloadJson) {
+        this.type = type;
+        this.success = success;
+        this.message = message;
+        this.payload = payload;
+        this.hasPayload = hasPayload;
+        this.payloadJson = payloadJson;
+    }
+
+    // Creates a response with a plain text message
+    public static Response message(ResponseType type, boolean success, String message) {
+        return new Response(type, success, message, null, false, null);
+    }
+
+    // Creates a successful response whose message is the given object encoded as JSON
+    public static Response payload(ResponseType type, Object payload) {
+        return new Response(type, true, null, payload, true, null);
+    }
+
+    // Creates a successful response whose message is JSON that was serialised earlier (see MenuCache)
+    public static Response json(ResponseType type, String payloadJson) {
+        return new Response(type, true, null, null, true, payloadJson);
+    }
+
+    // Adds one extra string field next to the standard ones
+    public Response withField(String name, String value) {
+        this.extraName = name;
+        this.extraValue = value;
+        return this;
+    }
+
+    // Adds binary data: Base64 text in the named field for line clients, the raw bytes after the header for frame clients
+    public Response withAttachment(String name, byte[] data) {
+        this.attachmentName = name;
+        this.attachment = data;
+        return this;
+    }
+
+    // Sets the client's correlation ID
+    public Response withRequestId(Object requestId) {
+        this.requestId = requestId;
+        return this;
+    }
+
+    public ResponseType getType() {
+        return type;
+    }
+
+    public boolean isSuccess() {
+        return success;
+    }
+
+    public byte[] getAttachment() {
+        return attachment;
+    }
+
+    // Streams the response as one JSON object for a line client, the caller writes the line terminator
+    public void writeTo(JsonWriter out, Gson gson) throws IOException {
+        writeTo(out, gson, false);
+    }
+
+    // Streams the response as one JSON object. For a frame header the attachment is only named,
+    // the caller sends its bytes after the header.
+    public void writeTo(JsonWriter out, Gson gson, boolean framed) throws IOException {
+        out.beginObject();
+        if (requestId instanceof Number number) {
+            out.name("requestId").value(number);
+        } else if (requestId != null) {
+            out.name("requestId").value(String.valueOf(requestId));
+        }
+        out.name("success").value(success ? "true" : "false");
+        out.name("message");
+        if (!hasPayload) {
+            out.value(message);
+        } else if (payloadJson != null) {
+            out.jsonValue(payloadJson);
+        } else if (payload == null) {
+            out.nullValue();
+        } else {
+            gson.toJson(payload, payload.getClass(), out);
+        }
+        if (extraName != null) {
+            out.name(extraName).value(extraValue);
+        }
+        if (attachmentName != null && framed) {
+            out.name("attachment").value(attachmentName);
+        } else if (attachmentName != null) {
+            out.name(attachmentName).value(Base64.getEncoder().encodeToString(attachment));
+        }
+        out.name("type").value(type.getWireName());
+        out.endObject();
+    }
+
+    // Encodes the response into a String, only meant for logging and debugging
+    public String toJson(Gson gson) {
+        StringWriter writer = new StringWriter();
+        try {
+            writeTo(new JsonWriter(writer), gson);
+        } catch (IOException e) {
+            throw new IllegalStateException(e); // StringWriter does not throw
+        }
+        return writer.toString();
+    }
+}
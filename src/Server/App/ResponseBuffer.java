@@ -0,0 +1,53 @@
+// Group: 6
+package Server.App;
+
+import com.google.gson.stream.JsonWriter;
+
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+// ResponseBuffer is a growable byte buffer with a JsonWriter on top, reused for every response encoded by its owner.
+// It produces either a response line or the prefix and header of a frame, the attachment of a frame is not copied.
+class ResponseBuffer extends ByteArrayOutputStream {
+    private static final int INITIAL_SIZE = 8 * 1024;
+    private static final int MAX_RETAINED_SIZE = 1024 * 1024; // Larger buffers are dropped after use
+
+    // JsonWriter does many small writes, the BufferedWriter batches them before they reach the encoder
+    private final Writer writer = new BufferedWriter(new OutputStreamWriter(this, StandardCharsets.UTF_8), INITIAL_SIZE);
+
+    ResponseBuffer() {
+        super(INITIAL_SIZE);
+    }
+
+    // Encodes one response and returns a buffer ready to be written to a channel.
+    // For frames the returned buffer holds the prefix and header, the caller sends the attachment after it.
+    ByteBuffer encode(Response response, boolean framed) throws IOException {
+        reset();
+        if (framed) {
+            write(new byte[Frame.PREFIX_LENGTH], 0, Frame.PREFIX_LENGTH); // Lengths are filled in below
+        }
+        JsonWriter jsonWriter = new JsonWriter(writer);
+        response.writeTo(jsonWriter, ServerApp.gson, framed);
+        if (!framed) {
+            writer.write('\n');
+        }
+        writer.flush();
+        ByteBuffer encoded = ByteBuffer.allocate(count);
+        if (framed) {
+            byte[] attachment = response.getAttachment();
+            encoded.putInt(count - Frame.PREFIX_LENGTH).putInt(attachment == null ? 0 : attachment.length);
+            encoded.put(buf, Frame.PREFIX_LENGTH, count - Frame.PREFIX_LENGTH).flip();
+        } else {
+            encoded.put(buf, 0, count).flip();
+        }
+        if (buf.length > MAX_RETAINED_SIZE) {
+            buf = new byte[INITIAL_SIZE]; // Do not keep a large image response around forever
+        }
+        return encoded;
+    }
+}
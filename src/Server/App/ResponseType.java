@@ -0,0 +1,59 @@
+// Group: 6
+package Server.App;
+
+// ResponseType is the "type" label of every server response.
+// The wire names are the handler method names the clients already route on (see UsainWoltGUI.processResponse).
+public enum ResponseType {
+    INVALID_REQUEST("handleRequest"),
+    RATE_LIMITED("handleRateLimited"),
+    SERVER_BUSY("handleServerBusy"),
+    UPDATE("update"),
+    ORDER_STATUS("orderStatus"),
+    NEW_DELIVERY_ORDER("newDeliveryOrder"),
+    PING("ping"),
+    PONG("pong"),
+    LOGIN("handleLogin"),
+    SIGN_UP("handleSignUp"),
+    SIGNUP_CUSTOMER("handleSignupCustomer"),
+    SIGNUP_DELIVERY("handleSignupDelivery"),
+    SIGNUP_RESTAURANT("handleSignupRestaurant"),
+    GET_USER_DATA("handleGetUserData"),
+    GET_RESTAURANTS("handleGetRestaurants"),
+    GET_MENU("handleGetMenu"),
+    PLACE_ORDER("handlePlaceOrder"),
+    UPDATE_MENU("handleUpdateMenu"),
+    UPDATE_CREDIT_CARD("handleUpdateCreditCard"),
+    GET_ORDERS_HISTORY("handleGetOrdersHistory"),
+    MARK_ORDER_READY_FOR_PICKUP("handleMarkOrderReadyForPickup"),
+    DISABLE_MENU_ITEMS("handleDisableMenuItems"),
+    ENABLE_MENU_ITEMS("handleEnableMenuItems"),
+    GET_CURRENT_ORDERS("handleGetCurrentOrders"),
+    DISCONNECT("handleDisconnect"),
+    GET_AVAILABLE_CUISINES("handleGetAvailableCuisines"),
+    CHANGE_PASSWORD("handleChangePassword"),
+    CHANGE_EMAIL("handleChangeEmail"),
+    PROFILE_PICTURE_UPLOAD("handleProfilePictureUpload"),
+    GET_IMAGE("handleGetImage"),
+    DELETE_ACCOUNT("handleDeleteAccount"),
+    UPDATE_PARAMETER("handleUpdateParameter"),
+    GET_INCOME_DATA("handleGetIncomeData"),
+    MARK_ORDER_DELIVERED("handleMarkOrderDelivered"),
+    CHECK_IF_ON_DELIVERY("handleCheckIfOnDelivery"),
+    PICKUP_ORDER("handlePickupOrder"),
+    GET_DELIVERY_ORDERS("handleGetDeliveryOrders"),
+    UPGRADE_PROTOCOL("handleUpgradeProtocol"),
+    GET_SERVER_STATS("handleGetServerStats"),
+    SEARCH_ITEMS("handleSearchItems"),
+    UNKNOWN_REQUEST_TYPE("handleDefault");
+
+    private final String wireName;
+
+    ResponseType(String wireName) {
+        this.wireName = wireName;
+    }
+
+    // Returns the label written into the "type" field
+    public String getWireName() {
+        return wireName;
+    }
+}
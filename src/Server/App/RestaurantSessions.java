@@ -0,0 +1,197 @@
+// Group: 6
+package Server.App;
+
+import Server.Models.RestaurantUser;
+import Server.Utilities.GeoGrid;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * RestaurantSessions is the table of logged-in restaurants and their connections, keyed by username.
+ * Next to it an immutable snapshot of the open restaurants is kept, in login order. The snapshot is
+ * replaced only on login, logout and relocate and carries a version that grows with every replacement, so readers
+ * (restaurant discovery, placing orders) never scan, lock or allocate, and caches built from a snapshot
+ * can tell whether it is still current by comparing versions.
+ * Open restaurants are also kept in spatial grids, one for all of them and one per cuisine, so a
+ * "restaurants near me" query only measures the restaurants in nearby grid cells (see GeoGrid).
+ * Answers of those queries are cached per neighbourhood in a DiscoveryCache, which is told about every
+ * restaurant that enters or leaves the grids.
+ * The menus of open restaurants are kept in a MenuIndex for item search.
+ * A restaurant that changes its address or cuisine while logged in must be passed to relocate,
+ * one that changes its menu to menuChanged.
+ * Logins and logouts are rare and synchronized, lookups and snapshot reads never lock.
+ */
+public class RestaurantSessions {
+    // Configuration
+    public static final double GRID_CELL_KM = 5; // Size of a spatial grid cell, about a typical search radius
+
+    private final Map<String, Session> byUsername = new ConcurrentHashMap<>();
+    private final GeoGrid<RestaurantUser> everywhere = new GeoGrid<>(GRID_CELL_KM);
+    private final Map<String, GeoGrid<RestaurantUser>> byCuisine = new ConcurrentHashMap<>();
+    private final MenuIndex menus = new MenuIndex();
+    private final DiscoveryCache discovery = new DiscoveryCache();
+    private volatile Snapshot open = new Snapshot(0, List.of());
+
+    // The restaurant and connection of one login, and where it was put in the grids (null if it has no location)
+    private record Session(RestaurantUser restaurant, ClientConnection connection, String cuisine, double[] location) {
+    }
+
+    // The open restaurants at one point in time, never changes once published
+    public record Snapshot(long version, List<RestaurantUser> restaurants) {
+    }
+
+    // Logs a restaurant in on a connection, replacing an older login of the same restaurant
+    public synchronized void login(RestaurantUser restaurant, ClientConnection connection) {
+        Session old = byUsername.get(restaurant.getUserName());
+        if (old != null) {
+            unindex(old);
+        }
+        byUsername.put(restaurant.getUserName(), index(restaurant, connection));
+        List<RestaurantUser> restaurants = withoutRestaurant(restaurant.getUserName());
+        restaurants.add(restaurant);
+        publish(restaurants);
+    }
+
+    // Logs a restaurant out, returns false if it was not logged in
+    public synchronized boolean logout(RestaurantUser restaurant) {
+        Session session = byUsername.remove(restaurant.getUserName());
+        if (session == null) {
+            return false;
+        }
+        unindex(session);
+        publish(withoutRestaurant(restaurant.getUserName()));
+        return true;
+    }
+
+    // Logs out every restaurant whose connection has closed, returns how many were removed
+    public synchronized int removeClosed() {
+        int removed = 0;
+        for (Map.Entry<String, Session> entry : byUsername.entrySet()) {
+            if (entry.getValue().connection().isClosed() && byUsername.remove(entry.getKey(), entry.getValue())) {
+                unindex(entry.getValue());
+                removed++;
+            }
+        }
+        if (removed > 0) {
+            List<RestaurantUser> restaurants = new ArrayList<>(open.restaurants());
+            restaurants.removeIf(restaurant -> !byUsername.containsKey(restaurant.getUserName()));
+            publish(restaurants);
+        }
+        return removed;
+    }
+
+    // Moves a logged-in restaurant in the grids after its address or cuisine changed
+    public synchronized void relocate(RestaurantUser restaurant) {
+        Session session = byUsername.get(restaurant.getUserName());
+        if (session == null) {
+            return;
+        }
+        unindex(session);
+        byUsername.put(restaurant.getUserName(), index(restaurant, session.connection()));
+        publish(new ArrayList<>(open.restaurants())); // Same restaurants, but cached results are stale
+    }
+
+    // Indexes a logged-in restaurant's menu again after it changed
+    public synchronized void menuChanged(RestaurantUser restaurant) {
+        if (byUsername.containsKey(restaurant.getUserName())) {
+            menus.put(restaurant);
+        }
+    }
+
+    // Puts a restaurant into the grids and the menu index and returns its session
+    private Session index(RestaurantUser restaurant, ClientConnection connection) {
+        menus.put(restaurant);
+        double[] location = restaurant.getCoordinates();
+        if (location == null) {
+            return new Session(restaurant, connection, null, null); // Cannot be found by location, as before
+        }
+        location = location.clone(); // Kept to find the restaurant's cached answers after it moved
+        String cuisine = cuisineKey(restaurant.getCuisine());
+        everywhere.put(restaurant, location[0], location[1]);
+        if (cuisine != null) {
+            byCuisine.computeIfAbsent(cuisine, c -> new GeoGrid<>(GRID_CELL_KM)).put(restaurant, location[0], location[1]);
+        }
+        discovery.changed(location[0], location[1], cuisine);
+        return new Session(restaurant, connection, cuisine, location);
+    }
+
+    private void unindex(Session session) {
+        menus.remove(session.restaurant().getUserName());
+        if (session.location() == null) {
+            return;
+        }
+        everywhere.remove(session.restaurant());
+        if (session.cuisine() != null) {
+            byCuisine.get(session.cuisine()).remove(session.restaurant()); // Cuisine grids are kept when empty
+        }
+        discovery.changed(session.location()[0], session.location()[1], session.cuisine());
+    }
+
+    private static String cuisineKey(String cuisine) {
+        return cuisine == null ? null : cuisine.toLowerCase(Locale.ROOT);
+    }
+
+    // Returns the open restaurants within radiusKm of a point, nearest first and at most limit of them (0 for all).
+    // A null, empty or "All" cuisine matches every restaurant.
+    public List<GeoGrid.Hit<RestaurantUser>> nearby(double lat, double lon, double radiusKm, String cuisine, int limit) {
+        if (cuisine == null || cuisine.isEmpty() || "all".equalsIgnoreCase(cuisine)) {
+            return discovery.nearby(everywhere, null, lat, lon, radiusKm, limit);
+        }
+        GeoGrid<RestaurantUser> grid = byCuisine.get(cuisineKey(cuisine));
+        if (grid == null) {
+            return new ArrayList<>();
+        }
+        return discovery.nearby(grid, cuisineKey(cuisine), lat, lon, radiusKm, limit);
+    }
+
+    // Returns the search index over the menus of the open restaurants
+    public MenuIndex getMenuIndex() {
+        return menus;
+    }
+
+    // Returns the cache of nearby queries, for its counters
+    public DiscoveryCache getDiscoveryCache() {
+        return discovery;
+    }
+
+    private List<RestaurantUser> withoutRestaurant(String username) {
+        List<RestaurantUser> restaurants = new ArrayList<>(open.restaurants());
+        restaurants.removeIf(restaurant -> restaurant.getUserName().equals(username));
+        return restaurants;
+    }
+
+    private void publish(List<RestaurantUser> restaurants) {
+        open = new Snapshot(open.version() + 1, Collections.unmodifiableList(restaurants));
+    }
+
+    // Returns true if the restaurant is logged in
+    public boolean isLoggedIn(String username) {
+        return username != null && byUsername.containsKey(username);
+    }
+
+    // Returns the logged-in restaurant with this username, or null
+    public RestaurantUser get(String username) {
+        Session session = username == null ? null : byUsername.get(username);
+        return session == null ? null : session.restaurant();
+    }
+
+    // Returns the connection a restaurant logged in on, or null
+    public ClientConnection getConnection(String username) {
+        Session session = username == null ? null : byUsername.get(username);
+        return session == null ? null : session.connection();
+    }
+
+    // Returns the current snapshot of open restaurants
+    public Snapshot getSnapshot() {
+        return open;
+    }
+
+    public int size() {
+        return byUsername.size();
+    }
+}
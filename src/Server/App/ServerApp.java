@@ -2,18 +2,24 @@ package Server.App;
 
 import Server.Models.*;
 import Server.Utilities.CustomDateAdapter;
+import Server.Utilities.ServerLogger;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
+import com.google.gson.JsonParseException;
 import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
 
 import java.io.*;
 import java.lang.reflect.Type;
-import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.Locale;
 import java.util.*;
-import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Consumer;
+import java.util.function.Function;
 
 
 
@@ -24,30 +30,33 @@ public class ServerApp {
     public static final String USERS_PATH = "server_logs/users";
     private static final String[] RESTAURANT_CUISINES = {"All", "American", "Chinese", "Italian", "Japanese", "Mexican", "Thai", "Israeli", "Indian"};
     public static final double DELIVERY_FEE = 5.0;
-    public static List<Order> pending = new ArrayList<>();
-    public static List<Order> readyForPickupOrders = new ArrayList<>();
+    public static final int LOADER_THREADS = Math.max(4, Runtime.getRuntime().availableProcessors()); // Threads that read user and menu files at startup
+    private static final Type MENU_TYPE = new TypeToken<List<Order.Item>>() {}.getType();
+    public static OrderStore orders = new OrderStore(); // Every order, indexed by status, restaurant, customer and courier
     public static final String DATE_FORMAT = "MMM dd, yyyy, hh:mm:ss a";  // Matches 'Aug 18, 2024, 10:27:06 PM'
     public static Gson gson = gsonCreator();
+    public static OrderJournal orderJournal = new OrderJournal("server_logs", orders, gson); // Makes order changes durable
+    public static UserPersister userPersister = new UserPersister(USERS_PATH, gson); // Writes changed users in the background
+    public static StateSnapshot stateSnapshot = new StateSnapshot("server_logs"); // Users and menus in one file for fast restarts
+    public static OrderIdAllocator orderIds = new OrderIdAllocator("server_logs"); // Hands out order IDs, reserving them on disk in blocks
 
-    public static List<User> allUsers = new CopyOnWriteArrayList<>();
-    public static List<Map<RestaurantUser,Socket>> loggedInRestaurants = new CopyOnWriteArrayList<>();
+    public static UserRegistry allUsers = new UserRegistry(); // Indexed by username, email and type
+    public static RestaurantSessions loggedInRestaurants = new RestaurantSessions(); // Logged-in restaurants and a snapshot of them
+    public static MenuCache menuCache = new MenuCache(); // Serialised getMenu replies, dropped when a menu changes
+    public static Map<String, Long> startupMillis = new LinkedHashMap<>(); // How long each startup phase took, filled in by ServerMain
 
     // Creates a file if it doesn't exist
     public static void createFileIfNotExists(String fileName) throws IOException {
         File file = new File(fileName);
         if (!file.exists()) {
             file.createNewFile();
-            System.out.println(fileName + " created.");
+            ServerLogger.info("storage", fileName + " created.");
         }
     }
 
-    // Cleans up logged-in restaurants list by removing restaurants with closed sockets
+    // Cleans up logged-in restaurants list by removing restaurants with closed connections
     public static void cleanUpLoggedInRestaurants() {
-        loggedInRestaurants.removeIf(entry -> {
-            RestaurantUser restaurant = entry.keySet().iterator().next();
-            Socket socket = entry.get(restaurant);
-            return socket.isClosed();
-        });
+        loggedInRestaurants.removeClosed();
     }
 
     // Configures and returns a Gson instance with custom date formatting
@@ -58,135 +67,162 @@ public class ServerApp {
                 .create();
     }
 
-    // Loads users from JSON files and initializes the server with them
+    // Loads users from the JSON files in server_logs/users, parsing the files in parallel.
+    // Orders kept inside user files (from before the order journal) are added to the order store unless the journal
+    // knows them already, so loadOrders must run first.
     public static void loadUsersFromJSON() throws IOException {
-        File usersDirectory = new File("server_logs/users");
-       try {
-            if (!usersDirectory.exists()) {
-                usersDirectory.mkdirs();
-            }
-            File[] userFiles = usersDirectory.listFiles((dir, name) -> name.endsWith(".json"));
-            if (userFiles == null) {
-                return;
+        File usersDirectory = new File(USERS_PATH);
+        if (!usersDirectory.exists()) {
+            usersDirectory.mkdirs();
+        }
+        File[] userFiles = usersDirectory.listFiles((dir, name) -> name.endsWith(".json"));
+        if (userFiles == null) {
+            return;
+        }
+        List<User> users = readInParallel(userFiles, ServerApp::readUserFile);
+        // Collected in the same pass that registers the users. A restaurant's copy of an order wins over the
+        // customer's, and the customer's over the courier's.
+        List<Order> restaurantOrders = new ArrayList<>();
+        List<Order> customerOrders = new ArrayList<>();
+        List<Order> courierOrders = new ArrayList<>();
+        for (User user : users) {
+            allUsers.add(user);
+            if (user instanceof RestaurantUser restaurant) {
+                restaurantOrders.addAll(restaurant.getOrders());
+            } else if (user instanceof CustomerUser customer) {
+                customerOrders.addAll(customer.getOrderHistory());
+            } else if (user instanceof DeliveryUser delivery && delivery.getCurrentOrder() != null) {
+                courierOrders.add(delivery.getCurrentOrder());
             }
-            for (File userFile : userFiles) {
-                try (BufferedReader reader = new BufferedReader(new FileReader(userFile))) {
-                    StringBuilder jsonUser = new StringBuilder();
-                    String line;
-                    while ((line = reader.readLine()) != null) {
-                        jsonUser.append(line);
-                    }
-                    String name = userFile.getName();
-                    if (name.contains("RestaurantUser")) {
-                        RestaurantUser restaurantUser = gson.fromJson(jsonUser.toString(), RestaurantUser.class);
-                        allUsers.add(restaurantUser);
-                        for (Order order : restaurantUser.getOrders()) {
-                            if (order.getStatus().equals("Pending")) {
-                                pending.add(order);
-                            } else if (order.getStatus().equals("Ready For Pickup")) {
-                                readyForPickupOrders.add(order);
-                            }
-                        }
-                    } else if (name.contains("CustomerUser")) {
-                        CustomerUser customerUser = gson.fromJson(jsonUser.toString(), CustomerUser.class);
-                        allUsers.add(customerUser);
-                    } else if (name.contains("DeliveryUser")) {
-                        DeliveryUser deliveryUser = gson.fromJson(jsonUser.toString(), DeliveryUser.class);
-                        allUsers.add(deliveryUser);
-                    }
-                    else {
-                        System.out.println("Unknown user type: " + name);
+        }
+        for (List<Order> embedded : List.of(restaurantOrders, customerOrders, courierOrders)) {
+            embedded.forEach(orders::putIfAbsent); // Files the new orders under their status, pending and ready included
+        }
+        ServerLogger.info("storage", "Loaded " + users.size() + " users from " + userFiles.length + " files");
+    }
+
+    // Parses one user file with a streaming reader, returns null if the file can't be used
+    private static User readUserFile(File userFile) {
+        String name = userFile.getName();
+        Class<? extends User> type;
+        if (name.contains("RestaurantUser")) {
+            type = RestaurantUser.class;
+        } else if (name.contains("CustomerUser")) {
+            type = CustomerUser.class;
+        } else if (name.contains("DeliveryUser")) {
+            type = DeliveryUser.class;
+        } else {
+            ServerLogger.warn("storage", "Unknown user type: " + name);
+            return null;
+        }
+        try (JsonReader reader = new JsonReader(Files.newBufferedReader(userFile.toPath(), StandardCharsets.UTF_8))) {
+            return gson.fromJson(reader, type);
+        } catch (IOException | JsonParseException e) {
+            ServerLogger.error("storage", "Could not load user file " + name, e);
+            return null;
+        }
+    }
+
+    // Runs reader over every file on a fork-join pool and returns the results that are not null, in file order.
+    // The pool has more threads than cores so that waiting for one file's read overlaps parsing another.
+    private static <T> List<T> readInParallel(File[] files, Function<File, T> reader) {
+        ForkJoinPool pool = new ForkJoinPool(LOADER_THREADS);
+        try {
+            // A parallel stream started from a task of a pool runs on that pool instead of the common one
+            return pool.submit(() -> Arrays.stream(files).parallel().map(reader).filter(Objects::nonNull).toList()).join();
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    // Loads the orders from the order journal, called before the users are loaded
+    public static void loadOrders() throws IOException {
+        for (Order order : orderJournal.load()) {
+            orders.put(order);
+        }
+    }
+
+    // Rebuilds the users' order lists from the order store. The copies in user files are not kept up to date,
+    // the journal is, and every user must point at the one stored copy so status changes are seen by all of them.
+    // Called once the users are loaded.
+    public static void linkOrders() {
+        for (User user : allUsers) {
+            if (user instanceof RestaurantUser restaurant) {
+                restaurant.setOrders(orders.getByRestaurant(restaurant.getUserName(), OrderStatus.PENDING));
+            } else if (user instanceof CustomerUser customer) {
+                customer.setOrderHistory(orders.getByCustomer(customer.getUserName()));
+            } else if (user instanceof DeliveryUser delivery) {
+                Order current = null;
+                for (Order order : orders.getByCourier(delivery.getUserName())) {
+                    if (order.getOrderStatus() == OrderStatus.PICKED_UP) {
+                        current = order;
                     }
                 }
+                delivery.setCurrentOrder(current);
             }
-        } catch (IOException e) {
-           e.printStackTrace();
-       }
+        }
     }
 
-    // Loads menus from JSON files into corresponding restaurant users
+    // Loads menus from the JSON files in menu_data into their restaurants, parsing the files in parallel
     public static void loadMenusFromJSON() throws IOException {
         File menuDirectory = new File("menu_data");
         if (!menuDirectory.exists() || !menuDirectory.isDirectory()) {
-            System.out.println("No menu directory found. Skipping menu loading.");
+            ServerLogger.warn("storage", "No menu directory found. Skipping menu loading.");
             return;
         }
-
-        // Loop through each file in the menu_data directory
         File[] menuFiles = menuDirectory.listFiles((dir, name) -> name.endsWith(".json"));
         if (menuFiles == null) {
-            System.out.println("No menu files found.");
+            ServerLogger.warn("storage", "No menu files found.");
             return;
         }
+        List<RestaurantUser> loaded = readInParallel(menuFiles, ServerApp::readMenuFile);
+        ServerLogger.info("storage", "Loaded " + loaded.size() + " menus from " + menuFiles.length + " files");
+    }
 
-        for (File menuFile : menuFiles) {
-            String restaurantUsername = menuFile.getName().replace(".json", "");
-
-            // Find the corresponding RestaurantUser
-            RestaurantUser restaurantUser = null;
-            for (User user : allUsers) {
-                if (user instanceof RestaurantUser && user.getUserName().equals(restaurantUsername)) {
-                    restaurantUser = (RestaurantUser) user;
-                    break;
-                }
-            }
-
-            if (restaurantUser == null) {
-                System.out.println("Restaurant user " + restaurantUsername + " not found. Skipping file " + menuFile.getName());
-                continue;
-            }
-
-            // Read and load the menu items from the file
-            try (BufferedReader reader = new BufferedReader(new FileReader(menuFile))) {
-                StringBuilder jsonMenu = new StringBuilder();
-                String line;
-                while ((line = reader.readLine()) != null) {
-                    jsonMenu.append(line);
-                }
-                Type menuType = new TypeToken<List<Order.Item>>() {}.getType();
-                restaurantUser.setMenu(gson.fromJson(jsonMenu.toString(), menuType));
+    // Parses one menu file and gives the menu to its restaurant, returns the restaurant or null if there is none
+    private static RestaurantUser readMenuFile(File menuFile) {
+        String restaurantUsername = menuFile.getName().replace(".json", "");
+        RestaurantUser restaurantUser = allUsers.get(restaurantUsername, RestaurantUser.class);
+        if (restaurantUser == null) {
+            ServerLogger.warn("storage", "Restaurant user " + restaurantUsername + " not found. Skipping file " + menuFile.getName());
+            return null;
+        }
+        try (JsonReader reader = new JsonReader(Files.newBufferedReader(menuFile.toPath(), StandardCharsets.UTF_8))) {
+            List<Order.Item> menu = gson.fromJson(reader, MENU_TYPE);
+            if (menu != null) {
+                restaurantUser.setMenu(menu);
             }
+            return restaurantUser;
+        } catch (IOException | JsonParseException e) {
+            ServerLogger.error("storage", "Could not load menu file " + menuFile.getName(), e);
+            return null;
         }
     }
 
     // Adds a new user if they don't already exist and saves their data
     public static void addUser(User user) throws IOException {
-       if (checkIfUserExists(user.getUserName())) {
-              throw new IllegalArgumentException("User already exists");
-         }
-          allUsers.add(user);
-          updateUser(user);
+        if (!allUsers.add(user)) {
+            throw new IllegalArgumentException("User already exists");
+        }
+        updateUser(user);
     }
 
     // Checks if a user with a given username already exists
     public static boolean checkIfUserExists(String userName) {
-        for (User user : allUsers) {
-            if (user.getUserName().equals(userName)) {
-                return true;
-            }
-        }
-        return false;
+        return allUsers.containsUsername(userName);
     }
 
-    // Updates the JSON file for a given user
+    // Marks a user as changed, the user persister writes its JSON file shortly after
     public static void updateUser(User user) throws IOException {
-       File usersDirectory = new File("server_logs/users");
-        if (!usersDirectory.exists()) {
-            usersDirectory.mkdirs();
-        }
-        File userFile = new File(usersDirectory, user.getUserName() + "." + String.valueOf(user.getClass().getSimpleName()) + ".json");
-        try {
-            BufferedWriter writer = new BufferedWriter(new FileWriter(userFile));
-            writer.write(gson.toJson(user));
-            writer.close();
-        }
-        catch (IOException e) {
-            e.printStackTrace();
-        }
+        stateSnapshot.changed();
+        userPersister.markDirty(user);
     }
 
     // Saves a restaurants menu to a JSON file
     static void saveMenu(RestaurantUser restaurant) throws IOException {
+        loggedInRestaurants.menuChanged(restaurant); // Keep item search up to date
+        menuCache.invalidate(restaurant.getUserName());
+        stateSnapshot.changed();
         File directory = new File("menu_data");
         if (!directory.exists()) {
             directory.mkdirs(); // Create directory if it doesn't exist
@@ -201,12 +237,9 @@ public class ServerApp {
         }
     }
 
-    // Adds a logged-in restaurant and its socket to the list
-    public static void addLoggedInRestaurant(RestaurantUser restaurant, Socket socket) {
-        if (isLogged(restaurant)) {
-            loggedInRestaurants.removeIf(user -> user.containsKey(restaurant));
-        }
-        loggedInRestaurants.add(Map.of(restaurant, socket));
+    // Adds a logged-in restaurant and its connection to the list
+    public static void addLoggedInRestaurant(RestaurantUser restaurant, ClientConnection connection) {
+        loggedInRestaurants.login(restaurant, connection);
     }
 
     // Returns a comma-separated string of all available cuisines
@@ -216,31 +249,56 @@ public class ServerApp {
 
 
 
-    // Saves an order and updates its status
+    // Saves a new order in the journal and tells the order listeners about it, then adds it to the customer's orders.
+    // Nothing is changed if the order cannot be saved.
     public static boolean saveOrder(Order order) throws IOException {
-        return updateOrder(order);
+        if (!canLink(order)) {
+            return false;
+        }
+        orderJournal.placed(order); // On disk before it is stored and anyone hears about it
+        linkOrder(order);
+        return true;
     }
 
-    // Updates an orders status and moves it between lists accordingly
-    static boolean updateOrder(Order order) throws IOException {
-        String status = order.getStatus();
-        System.out.println("Updating order " + order.getOrderId() + " to status " + status);
-        String restaurantName = order.getRestaurantName();
-        String customerName = order.getCustomerName();
-        String deliveryName = order.getDeliveryPerson();
-        RestaurantUser restaurant = null;
-        CustomerUser customer = null;
-        DeliveryUser delivery = null;
-        for (User user : allUsers) {
-            if (user instanceof RestaurantUser && user.getUserName().equals(restaurantName)) {
-                restaurant = (RestaurantUser) user;
-            } else if (user instanceof CustomerUser && user.getUserName().equals(customerName)) {
-                customer = (CustomerUser) user;
-            } else if (user instanceof DeliveryUser && user.getUserName().equals(deliveryName)) {
-                delivery = (DeliveryUser) user;
+    // Records an order's new status in the journal, moves it between lists accordingly and then tells
+    // the order listeners about the transition. If the change cannot be recorded the transition is reverted,
+    // "undo" reverses what the caller changed along with it, and false is returned or the IOException thrown.
+    static boolean updateOrder(Order order, OrderStatus from, OrderStatus to, Consumer<Order> undo) throws IOException {
+        boolean recorded = false;
+        try {
+            if (linkOrder(order)) {
+                orders.put(order); // Moves the order to the index buckets of its new status
+                orderJournal.statusChanged(order);
+                recorded = true;
+            }
+        } finally {
+            if (!recorded) {
+                orders.revert(order, from, to, undo);
             }
         }
-        if (restaurant == null || customer == null) {
+        if (recorded) {
+            orders.announce(order, from, to); // On disk before anyone hears about it
+        }
+        return recorded;
+    }
+
+    // Returns true if the order has a known status and its restaurant and customer exist
+    private static boolean canLink(Order order) {
+        return order.getOrderStatus() != null
+                && allUsers.get(order.getRestaurantName(), RestaurantUser.class) != null
+                && allUsers.get(order.getCustomerName(), CustomerUser.class) != null;
+    }
+
+    // Points the order's customer and courier at the order, returns false if the order or its users are invalid
+    private static boolean linkOrder(Order order) {
+        ServerLogger.info("order", "Updating order " + order.getOrderId() + " to status " + order.getStatus());
+        if (!canLink(order)) {
+            return false;
+        }
+        OrderStatus status = order.getOrderStatus();
+        CustomerUser customer = allUsers.get(order.getCustomerName(), CustomerUser.class);
+        DeliveryUser delivery = allUsers.get(order.getDeliveryPerson(), DeliveryUser.class);
+        if (customer == null) { // Deleted meanwhile
             return false;
         }
         if (delivery != null) {
@@ -248,47 +306,10 @@ public class ServerApp {
         }
         customer.removeOrder(order.getOrderId());
         customer.addOrder(order);
-        switch (status) {
-            case "Pending":
-                if (!pending.contains(order)) {
-                    pending.add(order);
-                }
-                updateAllUsers();
-                return pending.contains(order);
-            case "Ready For Pickup":
-                pending.remove(order);
-                if (!readyForPickupOrders.contains(order)) {
-                    readyForPickupOrders.add(order);
-                }
-                updateAllUsers();
-                return readyForPickupOrders.contains(order);
-            case "Picked Up":
-                readyForPickupOrders.remove(order);
-                updateAllUsers();
-                return !readyForPickupOrders.contains(order);
-            case "Delivered":
-                readyForPickupOrders.remove(order);
-                if (delivery != null)
-                    delivery.setCurrentOrder(null);
-                updateAllUsers();
-                return !readyForPickupOrders.contains(order);
-            case "Cancelled":
-                readyForPickupOrders.remove(order);
-                pending.remove(order);
-                if (delivery != null)
-                    delivery.setCurrentOrder(null);
-                updateAllUsers();
-                return !readyForPickupOrders.contains(order) && !pending.contains(order);
-            default:
-                return false;
-        }
-    }
-
-    // Updates JSON files for all users
-    public static void updateAllUsers() throws IOException {
-        for (User user : allUsers) {
-            updateUser(user);
+        if (status.isFinal() && delivery != null) {
+            delivery.setCurrentOrder(null);
         }
+        return true;
     }
 
     private static boolean addLineNotExists(File file, Order order) {
@@ -297,7 +318,7 @@ public class ServerApp {
             try {
                 file.createNewFile();
             } catch (IOException e) {
-                e.printStackTrace();
+                ServerLogger.error("storage", "Could not create " + file, e);
             }
         }
         try {
@@ -317,7 +338,7 @@ public class ServerApp {
                 writer.close();
             }
         } catch (IOException e) {
-            e.printStackTrace();
+            ServerLogger.error("storage", "Could not update " + file, e);
         }
         return !exists;
     }
@@ -343,7 +364,7 @@ public class ServerApp {
             }
             writer.close();
         } catch (IOException e) {
-            e.printStackTrace();
+            ServerLogger.error("storage", "Could not update " + file, e);
         }
         return !exists;
     }
@@ -351,80 +372,42 @@ public class ServerApp {
     // Removes a user from the server and deletes their JSON file
     public static void removeUser(User user) {
         allUsers.remove(user);
-        File userFile = new File("server_logs/users/" + user.getUserName() + "." + user.getClass().getSimpleName() + ".json");
-        if (userFile.exists()) {
-            userFile.delete();
-        }
+        menuCache.invalidate(user.getUserName());
+        stateSnapshot.changed();
+        userPersister.delete(user); // Queued behind any write of the user that is still waiting
     }
 
     // Retrieves orders that are ready for pickup
     public static Order[] getReadyForPickupOrders() {
-        return readyForPickupOrders.toArray(new Order[0]);
+        return orders.getByStatus(OrderStatus.READY_FOR_PICKUP).toArray(new Order[0]);
     }
 
-    // Finds and returns an order by its ID
+    // Finds an order that is still open (pending or ready for pickup) by its ID
     public static Order getOrderById(int orderId) {
-        for (Order order : readyForPickupOrders) {
-            if (order.getOrderId() == orderId) {
-                return order;
-            }
+        Order order = orders.get(orderId);
+        if (order == null || !(order.getOrderStatus() == OrderStatus.PENDING || order.getOrderStatus() == OrderStatus.READY_FOR_PICKUP)) {
+            return null;
         }
-        for (Order order : pending) {
-            if (order.getOrderId() == orderId) {
-                return order;
-            }
-        }
-        return null;
+        return order;
     }
 
     // Checks if a restaurant user is currently logged in
     public static boolean isLogged(RestaurantUser restaurantUser) {
-        for (Map<RestaurantUser, Socket> user : loggedInRestaurants) {
-            if (user.containsKey(restaurantUser)) {
-                return true;
-            }
-        }
-        return false;
+        return loggedInRestaurants.isLoggedIn(restaurantUser.getUserName());
     }
 
-    // Returns a list of all logged-in restaurant users
+    // Returns the logged-in restaurant users, an unmodifiable list that is shared between callers
     public static List<RestaurantUser> getLoggedInRestaurants() {
-        List<RestaurantUser> restaurants = new ArrayList<>();
-        for (Map<RestaurantUser, Socket> user : loggedInRestaurants) {
-            restaurants.add(user.keySet().iterator().next());
-        }
-        return restaurants;
-    }
-
-    // Retrieves the socket for a logged-in restaurant user
-    public static Socket getRestaurantSocket(RestaurantUser restaurant) {
-        for (Map<RestaurantUser, Socket> user : loggedInRestaurants) {
-            if (user.containsKey(restaurant)) {
-                return user.get(restaurant); // Return the associated socket
-            }
-        }
-        return null; // Return null if not found
+        return loggedInRestaurants.getSnapshot().restaurants();
     }
 
-    // Sends a message to a restaurant user through their socket
-    public static void pushUpdateToRestaurant(RestaurantUser restaurant, String message) {
-        Socket socket = getRestaurantSocket(restaurant);
-        if (socket != null) {
-            try {
-                PrintWriter writer = new PrintWriter(socket.getOutputStream(), true);
-                Map<String,String> response = new java.util.HashMap<>();
-                response.put("type", "update");
-                response.put("success", "true");
-                response.put("message", message);
-                writer.println(gson.toJson(response));
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
-        }
+    // Retrieves the connection for a logged-in restaurant user
+    public static ClientConnection getRestaurantConnection(RestaurantUser restaurant) {
+        return loggedInRestaurants.getConnection(restaurant.getUserName());
     }
 
     // Logs out a restaurant user by removing them from the logged-in list
     public static void logoutRestaurant(RestaurantUser userToDisconnect) {
-        loggedInRestaurants.removeIf(user -> user.containsKey(userToDisconnect));
+        loggedInRestaurants.logout(userToDisconnect);
     }
 }
\ No newline at end of file
@@ -0,0 +1,123 @@
+// Group: 6
+package Server.App;
+
+import Server.Utilities.ServerLogger;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * SessionReaper keeps track of which connections are still alive.
+ * Connections have no socket timeout, so a restaurant may stay connected through quiet hours.
+ * Instead, every HEARTBEAT_INTERVAL_SECONDS a timer sends a "ping" event to each connection
+ * that has been silent for that long; clients answer with a "pong" request.
+ * A connection that sent nothing at all for SESSION_TIMEOUT_SECONDS is closed, and the same timer
+ * removes restaurants whose connection closed from the logged-in list, expired session tokens and expired
+ * discovery cache entries.
+ */
+public class SessionReaper {
+    // Configuration
+    public static final int HEARTBEAT_INTERVAL_SECONDS = 15; // Silent connections are pinged this often
+    public static final int SESSION_TIMEOUT_SECONDS = 45; // Connections silent for this long are closed
+
+    private static final Set<ClientConnection> connections = ConcurrentHashMap.newKeySet();
+    private static final AtomicLong pingsSent = new AtomicLong();
+    private static final AtomicLong pongsReceived = new AtomicLong();
+    private static final AtomicLong evicted = new AtomicLong();
+    private static ScheduledExecutorService timer;
+
+    private SessionReaper() {
+    }
+
+    // Starts the timer, called once at server start
+    public static synchronized void start() {
+        if (timer != null) {
+            return;
+        }
+        timer = Executors.newSingleThreadScheduledExecutor(Thread.ofPlatform().name("session-reaper").daemon().factory());
+        timer.scheduleWithFixedDelay(SessionReaper::check, HEARTBEAT_INTERVAL_SECONDS, HEARTBEAT_INTERVAL_SECONDS, TimeUnit.SECONDS);
+    }
+
+    // Starts watching a new connection
+    public static void register(ClientConnection connection) {
+        connections.add(connection);
+    }
+
+    // Counts a client's answer to a ping
+    public static void pongReceived() {
+        pongsReceived.incrementAndGet();
+    }
+
+    // One timer tick: pings silent connections, closes dead ones and forgets closed ones
+    static void check() {
+        try {
+            long now = System.currentTimeMillis();
+            long pingAfter = TimeUnit.SECONDS.toMillis(HEARTBEAT_INTERVAL_SECONDS);
+            long closeAfter = TimeUnit.SECONDS.toMillis(SESSION_TIMEOUT_SECONDS);
+            Response ping = Response.message(ResponseType.PING, true, "ping");
+            int closed = 0;
+            for (ClientConnection connection : connections) {
+                if (connection.isClosed()) {
+                    connections.remove(connection);
+                    continue;
+                }
+                long silentFor = now - connection.getLastReadMillis();
+                if (silentFor >= closeAfter) {
+                    ServerLogger.info("session", "Closing " + connection.getRemoteAddress() + ", silent for " + silentFor / 1000 + " s");
+                    connection.close();
+                    connections.remove(connection);
+                    closed++;
+                } else if (silentFor >= pingAfter && connection.push(ping)) {
+                    pingsSent.incrementAndGet();
+                }
+            }
+            evicted.addAndGet(closed);
+            ServerApp.cleanUpLoggedInRestaurants();
+            SessionTokens.removeExpired();
+            ServerApp.loggedInRestaurants.getDiscoveryCache().removeExpired();
+        } catch (RuntimeException e) {
+            ServerLogger.error("session", "Session check failed", e);
+        }
+    }
+
+    // Returns the liveness counters, served by the getServerStats request
+    public static Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("openConnections", connections.size());
+        stats.put("loggedInRestaurants", ServerApp.loggedInRestaurants.size());
+        stats.put("activeTokens", SessionTokens.size());
+        DiscoveryCache discovery = ServerApp.loggedInRestaurants.getDiscoveryCache();
+        stats.put("discoveryCacheEntries", discovery.size());
+        stats.put("discoveryCacheHits", discovery.getHits());
+        stats.put("discoveryCacheMisses", discovery.getMisses());
+        stats.put("discoveryCacheInvalidations", discovery.getInvalidations());
+        stats.put("orderJournalEvents", ServerApp.orderJournal.getEventCount());
+        stats.put("orderJournalCommits", ServerApp.orderJournal.getCommitCount());
+        stats.put("orderJournalSnapshots", ServerApp.orderJournal.getSnapshotCount());
+        stats.put("nextOrderId", ServerApp.orderIds.getNextId());
+        stats.put("orderIdBlocksReserved", ServerApp.orderIds.getReservationCount());
+        stats.put("userWritesPending", ServerApp.userPersister.getQueueDepth());
+        stats.put("userWriteLagMillis", ServerApp.userPersister.getPendingLagMillis());
+        stats.put("userLastFlushLagMillis", ServerApp.userPersister.getLastFlushLagMillis());
+        stats.put("userMaxFlushLagMillis", ServerApp.userPersister.getMaxFlushLagMillis());
+        stats.put("userUpdatesCoalesced", ServerApp.userPersister.getCoalescedCount());
+        stats.put("userFilesWritten", ServerApp.userPersister.getWrittenCount());
+        stats.put("userWriteFailures", ServerApp.userPersister.getFailedCount());
+        stats.put("pingsSent", pingsSent.get());
+        stats.put("pongsReceived", pongsReceived.get());
+        stats.put("evictedSessions", evicted.get());
+        stats.put("pushesDelivered", PushBus.getDeliveredCount());
+        stats.put("pushesDropped", PushBus.getDroppedCount());
+        stats.put("inFlightRequests", RateLimiter.getInFlightRequests());
+        stats.put("heartbeatIntervalSeconds", HEARTBEAT_INTERVAL_SECONDS);
+        stats.put("sessionTimeoutSeconds", SESSION_TIMEOUT_SECONDS);
+        stats.put("startupMillis", ServerApp.startupMillis);
+        return stats;
+    }
+}
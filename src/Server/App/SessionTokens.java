@@ -0,0 +1,138 @@
+// Group: 6
+package Server.App;
+
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * SessionTokens issues the opaque tokens a client gets on login and checks them on later requests.
+ * A token is 32 random bytes, so it cannot be guessed, and checking one is a single hash lookup instead
+ * of hashing the password and looking the user up on every request.
+ * A token expires after TOKEN_IDLE_MINUTES without use, each use pushes its expiry back.
+ * Tokens are revoked on logout, all tokens of a user when the user changes password or deletes the account,
+ * and the oldest ones when a user holds more than MAX_TOKENS_PER_USER. The session reaper's timer
+ * removes expired tokens.
+ * Tokens live in memory only, after a restart clients log in again (or fall back to their password).
+ */
+public class SessionTokens {
+    // Configuration
+    public static final int TOKEN_IDLE_MINUTES = 12 * 60; // Unused tokens expire after this long
+    public static final int MAX_TOKENS_PER_USER = 20; // Logins beyond this revoke the user's oldest token
+
+    private static final SecureRandom random = new SecureRandom();
+    private static final Map<String, Session> byToken = new ConcurrentHashMap<>();
+    private static final Map<String, Set<String>> byUsername = new ConcurrentHashMap<>(); // Tokens of a user, oldest first
+
+    // The user a token belongs to and when it expires
+    private static class Session {
+        final String username;
+        volatile long expiresAtMillis;
+
+        Session(String username, long expiresAtMillis) {
+            this.username = username;
+            this.expiresAtMillis = expiresAtMillis;
+        }
+    }
+
+    private SessionTokens() {
+    }
+
+    // Issues a new token for a user who just logged in
+    public static String issue(String username) {
+        byte[] bytes = new byte[32];
+        random.nextBytes(bytes);
+        String token = Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+        byToken.put(token, new Session(username, System.currentTimeMillis() + idleMillis()));
+        byUsername.compute(username, (name, tokens) -> {
+            if (tokens == null) {
+                tokens = new LinkedHashSet<>();
+            }
+            tokens.add(token);
+            Iterator<String> oldest = tokens.iterator();
+            while (tokens.size() > MAX_TOKENS_PER_USER) {
+                byToken.remove(oldest.next());
+                oldest.remove();
+            }
+            return tokens;
+        });
+        return token;
+    }
+
+    // Returns the username of a valid token and extends its expiry, or null if it is unknown or expired
+    public static String validate(String token) {
+        Session session = token == null ? null : byToken.get(token);
+        if (session == null) {
+            return null;
+        }
+        long now = System.currentTimeMillis();
+        if (now >= session.expiresAtMillis) {
+            revoke(token);
+            return null;
+        }
+        session.expiresAtMillis = now + idleMillis();
+        return session.username;
+    }
+
+    // Revokes one token, used on logout
+    public static void revoke(String token) {
+        Session session = token == null ? null : byToken.remove(token);
+        if (session != null) {
+            forget(session.username, token);
+        }
+    }
+
+    // Revokes every token of a user except the given one (which may be null)
+    public static void revokeAll(String username, String except) {
+        List<String> revoked = new ArrayList<>();
+        byUsername.computeIfPresent(username, (name, tokens) -> {
+            for (Iterator<String> it = tokens.iterator(); it.hasNext(); ) {
+                String token = it.next();
+                if (!token.equals(except)) {
+                    revoked.add(token);
+                    it.remove();
+                }
+            }
+            return tokens.isEmpty() ? null : tokens;
+        });
+        for (String token : revoked) {
+            byToken.remove(token);
+        }
+    }
+
+    private static void forget(String username, String token) {
+        byUsername.computeIfPresent(username, (name, tokens) -> {
+            tokens.remove(token);
+            return tokens.isEmpty() ? null : tokens;
+        });
+    }
+
+    // Removes expired tokens, called by the session reaper's timer
+    public static int removeExpired() {
+        long now = System.currentTimeMillis();
+        int removed = 0;
+        for (Map.Entry<String, Session> entry : byToken.entrySet()) {
+            if (now >= entry.getValue().expiresAtMillis && byToken.remove(entry.getKey(), entry.getValue())) {
+                forget(entry.getValue().username, entry.getKey());
+                removed++;
+            }
+        }
+        return removed;
+    }
+
+    // Returns the number of live tokens
+    public static int size() {
+        return byToken.size();
+    }
+
+    private static long idleMillis() {
+        return TimeUnit.MINUTES.toMillis(TOKEN_IDLE_MINUTES);
+    }
+}
@@ -0,0 +1,166 @@
+// Group: 6
+package Server.App;
+
+import Server.Utilities.ServerLogger;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+// SocketConnection is a ClientConnection backed by a classic blocking socket (one reading thread per client).
+// Output goes through the connection's OutboundQueue and is written by its own virtual writer thread.
+public class SocketConnection implements ClientConnection {
+    private static final int MAX_LINE_LENGTH = Frame.MAX_HEADER_LENGTH;
+
+    private final Socket socket;
+    private final DataInputStream in; // Raw bytes, so the stream can switch from lines to frames
+    private final OutputStream out; // Only used by the writer thread
+    private final OutboundQueue outbound = new OutboundQueue();
+    private final ByteArrayOutputStream lineBuffer = new ByteArrayOutputStream(); // Only used by the reading thread
+    private volatile boolean framed;
+    private volatile long lastReadMillis = System.currentTimeMillis();
+
+    // Wraps an accepted socket and starts its writer thread
+    public static SocketConnection open(Socket socket) throws IOException {
+        SocketConnection connection = new SocketConnection(socket);
+        // Started once the connection is fully constructed, the writer thread reads its fields
+        Thread.ofVirtual().name("writer " + connection.getRemoteAddress()).start(connection::writeQueued);
+        return connection;
+    }
+
+    // Constructor to wrap an accepted socket with buffered byte streams, the writer is started by open
+    private SocketConnection(Socket socket) throws IOException {
+        this.socket = socket;
+        this.in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        this.out = new BufferedOutputStream(socket.getOutputStream());
+    }
+
+    // Reads the next request, a line or a frame depending on the protocol, returns null when the client closed the connection
+    // Does not read on while the client is behind on its responses, so a client that never reads cannot pile them up
+    public Frame readFrame() throws IOException {
+        try {
+            outbound.awaitWritable();
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException("Interrupted while waiting for " + getRemoteAddress());
+        }
+        Frame frame = framed ? readLengthPrefixedFrame() : readLine();
+        lastReadMillis = System.currentTimeMillis();
+        return frame;
+    }
+
+    // Reads one UTF-8 line as a frame without attachment
+    private Frame readLine() throws IOException {
+        lineBuffer.reset();
+        int b;
+        while ((b = in.read()) != '\n') {
+            if (b < 0) {
+                return null;
+            }
+            lineBuffer.write(b);
+            if (lineBuffer.size() > MAX_LINE_LENGTH) {
+                throw new IOException("Request line too long from " + getRemoteAddress());
+            }
+        }
+        String line = lineBuffer.toString(StandardCharsets.UTF_8);
+        if (line.endsWith("\r")) {
+            line = line.substring(0, line.length() - 1);
+        }
+        return new Frame(line, null);
+    }
+
+    // Reads [headerLength][attachmentLength][header][attachment]
+    private Frame readLengthPrefixedFrame() throws IOException {
+        int headerLength;
+        try {
+            headerLength = in.readInt();
+        } catch (EOFException e) {
+            return null;
+        }
+        int attachmentLength = in.readInt();
+        Frame.checkLengths(headerLength, attachmentLength);
+        byte[] header = new byte[headerLength];
+        in.readFully(header);
+        byte[] attachment = null;
+        if (attachmentLength > 0) {
+            attachment = new byte[attachmentLength];
+            in.readFully(attachment);
+        }
+        return new Frame(new String(header, StandardCharsets.UTF_8), attachment);
+    }
+
+    // The writer thread, writes queued output and flushes whenever the queue runs empty
+    private void writeQueued() {
+        try {
+            ByteBuffer buffer;
+            while ((buffer = outbound.take()) != null) {
+                out.write(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+                outbound.remove();
+                if (outbound.isEmpty()) {
+                    out.flush();
+                }
+            }
+        } catch (IOException | InterruptedException e) {
+            close();
+        }
+    }
+
+    @Override
+    public void send(Response response) {
+        queue(response, false);
+    }
+
+    @Override
+    public boolean push(Response event) {
+        return queue(event, true);
+    }
+
+    // Encodes on the calling thread and hands the bytes to the writer thread
+    private boolean queue(Response response, boolean push) {
+        try {
+            return outbound.add(response, framed, push);
+        } catch (IOException e) {
+            ServerLogger.error("connection", "Could not encode response for " + getRemoteAddress(), e);
+            return false;
+        }
+    }
+
+    @Override
+    public void upgradeToFrames() {
+        framed = true;
+    }
+
+    @Override
+    public long getLastReadMillis() {
+        return lastReadMillis;
+    }
+
+    @Override
+    public boolean isClosed() {
+        return socket.isClosed();
+    }
+
+    @Override
+    public void close() {
+        outbound.close();
+        PushBus.unsubscribe(this);
+        try {
+            if (!socket.isClosed())
+                socket.close();
+        } catch (IOException e) {
+            ServerLogger.error("connection", "Could not close connection to " + getRemoteAddress(), e);
+        }
+    }
+
+    @Override
+    public String getRemoteAddress() {
+        return String.valueOf(socket.getRemoteSocketAddress());
+    }
+}
@@ -0,0 +1,192 @@
+// Group: 6
+package Server.App;
+
+import Server.Models.CustomerUser;
+import Server.Models.DeliveryUser;
+import Server.Models.RestaurantUser;
+import Server.Models.User;
+import Server.Utilities.BinaryReader;
+import Server.Utilities.BinaryWriter;
+import Server.Utilities.ServerLogger;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * StateSnapshot keeps every user and menu in one binary file, server_logs/state.snapshot, so a restart maps one
+ * file into memory instead of opening and parsing a JSON file per user and per menu.
+ * A user is a block of binary fields (see the writeTo methods of the user classes), a restaurant's menu is a
+ * block inside it that is only decoded when the menu is first used. Order lists are not part of the snapshot,
+ * orders come from the order journal and are linked to the users after loading.
+ * The snapshot is written on shutdown, after the user persister flushed, and a small marker file holding the
+ * snapshot's ID is written next to it. Any change to a user or menu deletes the marker, and a snapshot without
+ * a matching marker is not loaded, so after a crash or with changes the snapshot missed, the server imports the
+ * JSON files in server_logs/users and menu_data instead. The user persister and saveMenu keep writing those
+ * files, they are the export of the current state and what the snapshot is rebuilt from.
+ */
+public class StateSnapshot {
+    // Configuration
+    public static final boolean ENABLED = true; // false always imports the JSON files and writes no snapshot
+
+    private static final int MAGIC = 0x574F4C54; // "WOLT"
+    private static final int FORMAT_VERSION = 1;
+    private static final int RESTAURANT = 1;
+    private static final int CUSTOMER = 2;
+    private static final int DELIVERY = 3;
+
+    private final Path snapshotPath;
+    private final Path markerPath; // Holds the snapshot's ID while the snapshot is current
+    private final AtomicLong changes = new AtomicLong(); // Counts changes, so a write can tell whether one raced it
+    private volatile boolean current; // The marker exists
+
+    public StateSnapshot(String directory) {
+        this.snapshotPath = Path.of(directory, "state.snapshot");
+        this.markerPath = Path.of(directory, "state.snapshot.current");
+    }
+
+    // Adds the users of the snapshot to the registry if the snapshot is current, returns false if the JSON files
+    // must be imported instead. Called once at startup.
+    public boolean load(UserRegistry users) {
+        if (!ENABLED || !Files.exists(snapshotPath) || !Files.exists(markerPath)) {
+            return false;
+        }
+        long start = System.nanoTime();
+        List<User> loaded = new ArrayList<>();
+        try (FileChannel channel = FileChannel.open(snapshotPath, StandardOpenOption.READ)) {
+            long id = Long.parseLong(Files.readString(markerPath, StandardCharsets.UTF_8).trim());
+            // The mapping stays valid after the channel is closed, undecoded menus keep reading from it
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            BinaryReader in = new BinaryReader(mapped);
+            if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION || in.readLong() != id) {
+                ServerLogger.info("storage", "The state snapshot is out of date, importing the JSON files");
+                return false;
+            }
+            long writtenAt = in.readLong();
+            for (int count = in.readInt(); count > 0; count--) {
+                int type = in.readByte();
+                BinaryReader record = in.readBlock();
+                switch (type) {
+                    case RESTAURANT -> loaded.add(new RestaurantUser(record));
+                    case CUSTOMER -> loaded.add(new CustomerUser(record));
+                    case DELIVERY -> loaded.add(new DeliveryUser(record));
+                    default -> ServerLogger.warn("storage", "Unknown user type " + type + " in the state snapshot");
+                }
+            }
+            ServerLogger.info("storage", "Loaded " + loaded.size() + " users from the state snapshot written at "
+                    + new Date(writtenAt) + " in " + (System.nanoTime() - start) / 1_000_000 + " ms");
+        } catch (IOException | RuntimeException e) {
+            ServerLogger.error("storage", "Could not read the state snapshot, importing the JSON files", e);
+            return false;
+        }
+        users.addAll(loaded);
+        current = true;
+        return true;
+    }
+
+    // Marks the snapshot as out of date, called whenever a user or menu changes
+    public void changed() {
+        changes.incrementAndGet();
+        if (current) {
+            current = false;
+            deleteMarker();
+        }
+    }
+
+    // Writes a snapshot of the users and marks it current unless something changed meanwhile
+    public void write(Collection<User> users) throws IOException {
+        if (!ENABLED) {
+            return;
+        }
+        long start = System.nanoTime();
+        long seen = changes.get();
+        long id = ThreadLocalRandom.current().nextLong();
+        List<User> known = new ArrayList<>();
+        for (User user : users) {
+            if (type(user) != 0) {
+                known.add(user);
+            }
+        }
+        Path temp = snapshotPath.resolveSibling(snapshotPath.getFileName() + ".tmp");
+        try (OutputStream file = new BufferedOutputStream(Files.newOutputStream(temp), 1 << 16)) {
+            BinaryWriter out = new BinaryWriter(file);
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.writeLong(id);
+            out.writeLong(System.currentTimeMillis());
+            out.writeInt(known.size());
+            for (User user : known) {
+                out.writeByte(type(user));
+                out.writeBlock(BinaryWriter.encode(user::writeTo));
+            }
+            out.flush();
+        }
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+            channel.force(true);
+        }
+        Files.move(temp, snapshotPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        if (changes.get() != seen) {
+            ServerLogger.info("storage", "Users changed while the state snapshot was written, it will not be used");
+            return;
+        }
+        Path markerTemp = markerPath.resolveSibling(markerPath.getFileName() + ".tmp");
+        Files.writeString(markerTemp, Long.toString(id), StandardCharsets.UTF_8);
+        Files.move(markerTemp, markerPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        current = true;
+        if (changes.get() != seen) { // A change that saw no marker yet
+            current = false;
+            deleteMarker();
+            return;
+        }
+        ServerLogger.info("storage", "Wrote a state snapshot of " + known.size() + " users in " + (System.nanoTime() - start) / 1_000_000 + " ms");
+    }
+
+    // Writes a snapshot on shutdown, after the changed users are flushed to their JSON files
+    public void writeOnExit(UserRegistry users, UserPersister persister) {
+        Runtime.getRuntime().addShutdownHook(Thread.ofPlatform().name("state-snapshot").unstarted(() -> {
+            persister.flush();
+            try {
+                write(users);
+            } catch (IOException | RuntimeException e) {
+                ServerLogger.error("storage", "Could not write the state snapshot", e);
+            }
+        }));
+    }
+
+    private void deleteMarker() {
+        try {
+            Files.deleteIfExists(markerPath);
+        } catch (IOException e) {
+            ServerLogger.error("storage", "Could not delete " + markerPath + ", removing the state snapshot instead", e);
+            try {
+                Files.deleteIfExists(snapshotPath);
+            } catch (IOException again) {
+                ServerLogger.error("storage", "Could not delete " + snapshotPath, again);
+            }
+        }
+    }
+
+    private static int type(User user) {
+        if (user instanceof RestaurantUser) {
+            return RESTAURANT;
+        } else if (user instanceof CustomerUser) {
+            return CUSTOMER;
+        } else if (user instanceof DeliveryUser) {
+            return DELIVERY;
+        }
+        return 0;
+    }
+}
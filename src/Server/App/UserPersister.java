@@ -0,0 +1,238 @@
+// Group: 6
+package Server.App;
+
+import Server.Models.RestaurantUser;
+import Server.Models.User;
+import Server.Utilities.ServerLogger;
+import com.google.gson.Gson;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * UserPersister writes user files in the background so requests that change a user do not wait for the disk.
+ * A request marks the user dirty and returns. A flusher thread writes the user FLUSH_WINDOW_MILLIS after its first
+ * unsaved change, and whatever else changed the user in that window goes out with the same write, so a burst of
+ * changes to one user costs one write. The user is serialised when it is written, not when it is marked.
+ * Files are written to a temp file and renamed over the old one, so a crash leaves either the old or the new file,
+ * never a truncated one. Deleting a user goes through the same queue, so a delete and a later write of the same
+ * file cannot overtake each other.
+ * A failed write is retried after RETRY_AFTER_MILLIS. Whatever is still dirty is written on shutdown.
+ */
+public class UserPersister {
+    // Configuration
+    public static final long FLUSH_WINDOW_MILLIS = 500; // Changes to a user within this long of its first unsaved change are written together
+    public static final long RETRY_AFTER_MILLIS = 5_000; // A failed write is tried again after this long
+    public static final boolean FORCE_ON_WRITE = false; // Force the temp file to disk before the rename
+
+    private final Path directory;
+    private final Gson gson;
+    private final Map<String, Dirty> dirty = new ConcurrentHashMap<>(); // File name -> its unsaved change
+    private final DelayQueue<Dirty> due = new DelayQueue<>();
+    private final ReentrantLock writing = new ReentrantLock(); // Writes one file at a time, the flusher's or the shutdown flush's
+    private Thread flusher;
+    private final AtomicLong marked = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+    private final AtomicLong written = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private volatile long lastLagMillis;
+    private volatile long maxLagMillis;
+
+    // The unsaved change of one file, its fields are only changed inside the map's compute for its file name
+    private static final class Dirty implements Delayed {
+        final String fileName;
+        final long markedAtNanos; // When the oldest change in this write was made
+        final long dueAtNanos;
+        User user;
+        boolean delete; // Delete the file instead of writing the user
+
+        Dirty(String fileName, User user, boolean delete, long markedAtNanos, long delayMillis) {
+            this.fileName = fileName;
+            this.user = user;
+            this.delete = delete;
+            this.markedAtNanos = markedAtNanos;
+            this.dueAtNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delayMillis);
+        }
+
+        @Override
+        public long getDelay(TimeUnit unit) {
+            return unit.convert(dueAtNanos - System.nanoTime(), TimeUnit.NANOSECONDS);
+        }
+
+        @Override
+        public int compareTo(Delayed other) {
+            return Long.compare(dueAtNanos, ((Dirty) other).dueAtNanos);
+        }
+    }
+
+    public UserPersister(String directory, Gson gson) {
+        this.directory = Path.of(directory);
+        this.gson = gson;
+    }
+
+    // Starts the flusher thread and the flush on shutdown, called once at server start
+    public synchronized void start() {
+        if (flusher != null) {
+            return;
+        }
+        flusher = Thread.ofPlatform().name("user-flusher").daemon().start(this::run);
+        Runtime.getRuntime().addShutdownHook(Thread.ofPlatform().name("user-flush-on-exit").unstarted(this::flush));
+    }
+
+    // Marks a user as changed, the file is written within FLUSH_WINDOW_MILLIS
+    public void markDirty(User user) {
+        schedule(user, false, FLUSH_WINDOW_MILLIS);
+    }
+
+    // Deletes a user's file, after any write of it that is still waiting
+    public void delete(User user) {
+        schedule(user, true, FLUSH_WINDOW_MILLIS);
+    }
+
+    private void schedule(User user, boolean delete, long delayMillis) {
+        marked.incrementAndGet();
+        dirty.compute(fileName(user), (name, pending) -> {
+            if (pending != null) {
+                coalesced.incrementAndGet();
+            } else {
+                pending = new Dirty(name, user, delete, System.nanoTime(), delayMillis);
+                due.add(pending);
+            }
+            pending.user = user;
+            pending.delete = delete;
+            return pending;
+        });
+    }
+
+    private void run() {
+        while (true) {
+            try {
+                Dirty next = due.take();
+                writing.lock();
+                try {
+                    if (dirty.remove(next.fileName, next)) { // Otherwise the shutdown flush already wrote it
+                        write(next);
+                    }
+                } finally {
+                    writing.unlock();
+                }
+            } catch (InterruptedException e) {
+                return;
+            } catch (RuntimeException e) {
+                ServerLogger.error("storage", "User flusher failed", e);
+            }
+        }
+    }
+
+    // Writes every dirty user now, called on shutdown
+    public void flush() {
+        writing.lock();
+        try {
+            int count = 0;
+            for (Dirty pending : dirty.values()) {
+                if (dirty.remove(pending.fileName, pending)) {
+                    write(pending);
+                    count++;
+                }
+            }
+            if (count > 0) {
+                ServerLogger.info("storage", "Flushed " + count + " changed users");
+            }
+        } finally {
+            writing.unlock();
+        }
+    }
+
+    // Writes or deletes one file, called with the writing lock held after the change left the map
+    private void write(Dirty pending) {
+        Path file = directory.resolve(pending.fileName);
+        try {
+            if (pending.delete) {
+                Files.deleteIfExists(file);
+            } else {
+                if (pending.user instanceof RestaurantUser restaurant) {
+                    restaurant.getMenu(); // Decodes a menu still waiting in the state snapshot, the file carries the menu too
+                }
+                // Serialised now, so every change made up to here is in the file
+                byte[] json = gson.toJson(pending.user).getBytes(StandardCharsets.UTF_8);
+                Files.createDirectories(directory);
+                Path temp = directory.resolve(pending.fileName + ".tmp");
+                Files.write(temp, json);
+                if (FORCE_ON_WRITE) {
+                    try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                        channel.force(true);
+                    }
+                }
+                Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            }
+            written.incrementAndGet();
+            long lag = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - pending.markedAtNanos);
+            lastLagMillis = lag;
+            if (lag > maxLagMillis) {
+                maxLagMillis = lag;
+            }
+        } catch (IOException | RuntimeException e) {
+            // A RuntimeException here is most likely a request changing the user's lists while it was serialised
+            failed.incrementAndGet();
+            ServerLogger.error("storage", "Could not save " + pending.fileName + ", retrying in " + RETRY_AFTER_MILLIS + " ms", e);
+            dirty.computeIfAbsent(pending.fileName, name -> { // A newer change that is already waiting wins
+                Dirty retry = new Dirty(name, pending.user, pending.delete, pending.markedAtNanos, RETRY_AFTER_MILLIS);
+                due.add(retry);
+                return retry;
+            });
+        }
+    }
+
+    private static String fileName(User user) {
+        return user.getUserName() + "." + user.getClass().getSimpleName() + ".json";
+    }
+
+    // Returns the number of users waiting to be written
+    public int getQueueDepth() {
+        return dirty.size();
+    }
+
+    // Returns how long the oldest unsaved change has been waiting, 0 if nothing is waiting
+    public long getPendingLagMillis() {
+        Dirty oldest = due.peek();
+        // The queue can still hold changes the shutdown flush took, those are not waiting
+        return oldest == null || dirty.get(oldest.fileName) != oldest ? 0 : TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - oldest.markedAtNanos);
+    }
+
+    // Returns the time from the first change of the last write to the end of that write
+    public long getLastFlushLagMillis() {
+        return lastLagMillis;
+    }
+
+    public long getMaxFlushLagMillis() {
+        return maxLagMillis;
+    }
+
+    public long getMarkedCount() {
+        return marked.get();
+    }
+
+    public long getCoalescedCount() {
+        return coalesced.get();
+    }
+
+    public long getWrittenCount() {
+        return written.get();
+    }
+
+    public long getFailedCount() {
+        return failed.get();
+    }
+}
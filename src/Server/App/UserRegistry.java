@@ -0,0 +1,150 @@
+// Group: 6
+package Server.App;
+
+import Server.Models.User;
+
+import java.util.AbstractCollection;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * UserRegistry holds every user of the server, indexed by username, email and user type.
+ * Lookups are hash lookups instead of scans, and adding or removing a user touches only its own
+ * index entries instead of copying a list of all users. Reads never lock, writes of one user are atomic
+ * with respect to each other. It is still a Collection, so code that loops over all users keeps working.
+ * Emails are not unique (only customer emails are checked at signup), so the email index maps to a set.
+ * Email changes must go through changeEmail so the index stays correct.
+ */
+public class UserRegistry extends AbstractCollection<User> {
+    private final Map<String, User> byUsername = new ConcurrentHashMap<>();
+    private final Map<String, Set<User>> byEmail = new ConcurrentHashMap<>();
+    private final Map<Class<? extends User>, Set<User>> byType = new ConcurrentHashMap<>();
+
+    // Adds a user, returns false if the username is already taken
+    @Override
+    public synchronized boolean add(User user) {
+        if (byUsername.putIfAbsent(user.getUserName(), user) != null) {
+            return false;
+        }
+        addToIndex(byEmail, user.getEmail(), user);
+        typeSet(user.getClass()).add(user);
+        return true;
+    }
+
+    // Removes a user from every index, returns false if it was not registered
+    @Override
+    public synchronized boolean remove(Object object) {
+        if (!(object instanceof User user) || !byUsername.remove(user.getUserName(), user)) {
+            return false;
+        }
+        removeFromIndex(byEmail, user.getEmail(), user);
+        byType.get(user.getClass()).remove(user); // Type sets are kept even when empty, getAll hands out views of them
+        return true;
+    }
+
+    // Returns the user with this username, or null
+    public User get(String username) {
+        return username == null ? null : byUsername.get(username);
+    }
+
+    // Returns the user with this username if it is of the given type, or null
+    public <T extends User> T get(String username, Class<T> type) {
+        User user = get(username);
+        return type.isInstance(user) ? type.cast(user) : null;
+    }
+
+    // Returns the user if the username exists and the hashed password matches, or null
+    public User authenticate(String username, String hashedPassword) {
+        User user = get(username);
+        return user != null && user.checkPassword(hashedPassword) ? user : null;
+    }
+
+    // Returns true if a user has this username
+    public boolean containsUsername(String username) {
+        return username != null && byUsername.containsKey(username);
+    }
+
+    // Returns true if a user of the given type (or a subtype) uses this email
+    public boolean containsEmail(String email, Class<? extends User> type) {
+        Set<User> users = email == null ? null : byEmail.get(email);
+        if (users == null) {
+            return false;
+        }
+        for (User user : users) {
+            if (type.isInstance(user)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Returns a live, unmodifiable view of all users of exactly this type
+    @SuppressWarnings("unchecked")
+    public <T extends User> Collection<T> getAll(Class<T> type) {
+        return (Collection<T>) Collections.unmodifiableSet(typeSet(type));
+    }
+
+    private Set<User> typeSet(Class<? extends User> type) {
+        return byType.computeIfAbsent(type, t -> ConcurrentHashMap.newKeySet());
+    }
+
+    // Changes a user's email and moves the user in the email index
+    public synchronized void changeEmail(User user, String newEmail) {
+        removeFromIndex(byEmail, user.getEmail(), user);
+        user.setEmail(newEmail);
+        addToIndex(byEmail, newEmail, user);
+    }
+
+    private static <K> void addToIndex(Map<K, Set<User>> index, K key, User user) {
+        if (key != null) {
+            index.computeIfAbsent(key, k -> ConcurrentHashMap.newKeySet()).add(user);
+        }
+    }
+
+    private static <K> void removeFromIndex(Map<K, Set<User>> index, K key, User user) {
+        if (key != null) {
+            index.computeIfPresent(key, (k, users) -> {
+                users.remove(user);
+                return users.isEmpty() ? null : users;
+            });
+        }
+    }
+
+    // Iterates over all users, weakly consistent: never fails while users are added or removed
+    @Override
+    public Iterator<User> iterator() {
+        Iterator<User> users = byUsername.values().iterator();
+        return new Iterator<>() {
+            private User last;
+
+            @Override
+            public boolean hasNext() {
+                return users.hasNext();
+            }
+
+            @Override
+            public User next() {
+                last = users.next();
+                return last;
+            }
+
+            @Override
+            public void remove() {
+                if (last == null) {
+                    throw new IllegalStateException();
+                }
+                UserRegistry.this.remove(last);
+                last = null;
+            }
+        };
+    }
+
+    @Override
+    public int size() {
+        return byUsername.size();
+    }
+}
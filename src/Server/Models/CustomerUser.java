@@ -3,6 +3,10 @@ package Server.Models;
 
 import Server.Models.Order;
 import Server.Models.User;
+import Server.Utilities.BinaryReader;
+import Server.Utilities.BinaryWriter;
+
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
@@ -118,6 +122,36 @@ public class CustomerUser extends User {
         }
     }
 
+    // Constructor for creating a customer from a state snapshot record, the order history is linked afterwards
+    public CustomerUser(BinaryReader in) {
+        super(in);
+        this.orderHistory = new ArrayList<>();
+        this.preferences = new HashMap<>();
+        for (int count = in.readInt(); count > 0; count--) {
+            preferences.put(in.readString(), in.readString());
+        }
+        this.creditCard = in.readBoolean() ? new CreditCard(in.readString(), in.readString(), in.readString()) : null;
+        this.inAppBalance = in.readDouble();
+    }
+
+    @Override
+    public void writeTo(BinaryWriter out) throws IOException {
+        super.writeTo(out);
+        Map<String, String> preferences = this.preferences == null ? Map.of() : getPreferences();
+        out.writeInt(preferences.size());
+        for (Map.Entry<String, String> preference : preferences.entrySet()) {
+            out.writeString(preference.getKey());
+            out.writeString(preference.getValue());
+        }
+        out.writeBoolean(creditCard != null);
+        if (creditCard != null) {
+            out.writeString(creditCard.getCreditCardNumber());
+            out.writeString(creditCard.getExpirationDate());
+            out.writeString(creditCard.getCvv());
+        }
+        out.writeDouble(inAppBalance);
+    }
+
     // Getters and Setters for order history and preferences
     public List<Order> getOrderHistory() {
         return new ArrayList<>(orderHistory);
@@ -1,6 +1,11 @@
 // Group: 6
 package Server.Models;
 
+import Server.Utilities.BinaryReader;
+import Server.Utilities.BinaryWriter;
+
+import java.io.IOException;
+
 public class DeliveryUser extends User {
     private double income;
     private Order currentOrder;
@@ -18,6 +23,18 @@ public class DeliveryUser extends User {
         this.income = Double.parseDouble(fields[8]);
     }
 
+    // Constructor for creating a delivery user from a state snapshot record, the current order is linked afterwards
+    public DeliveryUser(BinaryReader in) {
+        super(in);
+        this.income = in.readDouble();
+    }
+
+    @Override
+    public void writeTo(BinaryWriter out) throws IOException {
+        super.writeTo(out);
+        out.writeDouble(income);
+    }
+
     @Override
     public void performUserSpecificAction() {
 
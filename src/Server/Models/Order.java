@@ -1,8 +1,13 @@
 // Group: 6
 package Server.Models;
 
+import Server.Utilities.BinaryReader;
+import Server.Utilities.BinaryWriter;
 import Server.Utilities.GeoLocationService;
 
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
@@ -15,7 +20,7 @@ public class Order {
     private double totalPrice; // Total price of the order
     private String customerName; // Name of the customer who placed the order
     private String restaurantName; // Name of the restaurant fulfilling the order
-    private String status; // Current status of the order (e.g., "Pending", "In Progress", "Delivered")
+    private volatile String status; // Current status label of the order (see OrderStatus), changed with transition
     private String customerNote; // Additional note from the customer
     private String address; // Delivery address
     private String restaurantAddress; // Address of the restaurant
@@ -23,6 +28,16 @@ public class Order {
     private double distance; // Distance between restaurant and delivery address
     private double[] location = new double[2]; // Geographical location [latitude, longitude]
 
+    private static final VarHandle STATUS; // Compare-and-set access to the status field
+
+    static {
+        try {
+            STATUS = MethodHandles.lookup().findVarHandle(Order.class, "status", String.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
     // Constructor for creating an order with all details
     public Order(int orderId, Date orderDate, List<Item> items, String customerName, String restaurantName, String status, String customerNote, String address, String restaurantAddress) {
         this.orderId = orderId;
@@ -138,6 +153,28 @@ public class Order {
         this.status = status;
     }
 
+    // Returns the status as an OrderStatus, or null if the stored label is unknown
+    public OrderStatus getOrderStatus() {
+        return OrderStatus.fromLabel(status);
+    }
+
+    // Atomically moves the order from one status to the next without locking.
+    // Returns false if the lifecycle does not allow the move or the order is no longer in "from"
+    // (for example another courier picked it up first), in that case nothing is changed.
+    public boolean transition(OrderStatus from, OrderStatus to) {
+        if (!from.canMoveTo(to)) {
+            return false;
+        }
+        String current = status;
+        return OrderStatus.fromLabel(current) == from && STATUS.compareAndSet(this, current, to.getLabel());
+    }
+
+    // Moves the order back from a transition that could not be recorded.
+    // Returns false if the status changed again meanwhile, in that case nothing is changed.
+    public boolean revertTransition(OrderStatus from, OrderStatus to) {
+        return STATUS.compareAndSet(this, to.getLabel(), from.getLabel());
+    }
+
     public String getCustomerNote() {
         return customerNote;
     }
@@ -159,7 +196,7 @@ public class Order {
     }
 
     public boolean isDelivered() {
-        return status.equals("Delivered");
+        return getOrderStatus() == OrderStatus.DELIVERED;
     }
 
     public String getAddress() {
@@ -211,6 +248,26 @@ public class Order {
             this.quantity = parts.length > 5 ? Integer.parseInt(parts[5]) : 0;
         }
 
+        // Constructor for creating an item from a state snapshot record
+        public Item(BinaryReader in) {
+            this.name = in.readString();
+            this.price = in.readDouble();
+            this.available = in.readBoolean();
+            this.photoUrl = in.readString();
+            this.description = in.readString();
+            this.quantity = in.readInt();
+        }
+
+        // Writes the item to a state snapshot record
+        public void writeTo(BinaryWriter out) throws IOException {
+            out.writeString(name);
+            out.writeDouble(price);
+            out.writeBoolean(available);
+            out.writeString(photoUrl);
+            out.writeString(description);
+            out.writeInt(quantity);
+        }
+
         // Getters and Setters
         public String getName() {
             return name;
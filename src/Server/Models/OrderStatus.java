@@ -0,0 +1,50 @@
+// Group: 6
+package Server.Models;
+
+// OrderStatus is the lifecycle of an order: Pending -> Ready For Pickup -> Picked Up -> Delivered.
+// Pending and ready orders may also be cancelled. The labels are the strings stored in the order's JSON.
+public enum OrderStatus {
+    PENDING("Pending"),
+    READY_FOR_PICKUP("Ready For Pickup"),
+    PICKED_UP("Picked Up"),
+    DELIVERED("Delivered"),
+    CANCELLED("Cancelled");
+
+    private final String label;
+
+    OrderStatus(String label) {
+        this.label = label;
+    }
+
+    // Returns the status for a stored label, or null if the label is unknown
+    public static OrderStatus fromLabel(String label) {
+        if (label == null) {
+            return null;
+        }
+        for (OrderStatus status : values()) {
+            if (status.label.equals(label)) {
+                return status;
+            }
+        }
+        return null;
+    }
+
+    public String getLabel() {
+        return label;
+    }
+
+    // Returns true if an order may move from this status to the next one
+    public boolean canMoveTo(OrderStatus next) {
+        return switch (this) {
+            case PENDING -> next == READY_FOR_PICKUP || next == CANCELLED;
+            case READY_FOR_PICKUP -> next == PICKED_UP || next == CANCELLED;
+            case PICKED_UP -> next == DELIVERED;
+            case DELIVERED, CANCELLED -> false;
+        };
+    }
+
+    // Returns true for delivered and cancelled orders
+    public boolean isFinal() {
+        return this == DELIVERED || this == CANCELLED;
+    }
+}
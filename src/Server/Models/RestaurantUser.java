@@ -1,7 +1,11 @@
 // Group: 6
 package Server.Models;
 
+import Server.Utilities.BinaryReader;
+import Server.Utilities.BinaryWriter;
+
 import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -14,6 +18,7 @@ public class RestaurantUser extends User {
     private boolean hasProfilePicture; // Flag indicating if the restaurant has a profile picture
     private String profilePictureUrl; // URL to the restaurant's profile picture
     private String restaurantName; // Name of the restaurant
+    private transient volatile BinaryReader encodedMenu; // The menu as read from the state snapshot, decoded on first use
 
 
     // Constructor for creating a RestaurantUser with all required fields
@@ -64,6 +69,67 @@ public class RestaurantUser extends User {
     }
 
 
+    // Constructor to create RestaurantUser from a state snapshot record, the menu is only decoded when first used
+    // and the orders are linked afterwards
+    public RestaurantUser(BinaryReader in) {
+        super(in);
+        this.businessPhoneNumber = in.readString();
+        this.cuisine = in.readString();
+        this.revenue = in.readDouble();
+        this.hasProfilePicture = in.readBoolean();
+        this.profilePictureUrl = in.readString();
+        this.restaurantName = in.readString();
+        this.orders = new ArrayList<>();
+        this.menu = new ArrayList<>();
+        this.encodedMenu = in.readBlock();
+    }
+
+    @Override
+    public void writeTo(BinaryWriter out) throws IOException {
+        super.writeTo(out);
+        out.writeString(businessPhoneNumber);
+        out.writeString(cuisine);
+        out.writeDouble(revenue);
+        out.writeBoolean(hasProfilePicture);
+        out.writeString(profilePictureUrl);
+        out.writeString(restaurantName);
+        byte[] encoded = null;
+        synchronized (this) { // Not while menu() is decoding it
+            if (encodedMenu != null) {
+                encoded = encodedMenu.remainingBytes();
+            }
+        }
+        if (encoded != null) {
+            out.writeBlock(encoded); // Never decoded, copied as it is
+        } else {
+            List<Order.Item> items = getMenu();
+            out.writeBlock(BinaryWriter.encode(block -> {
+                block.writeInt(items.size());
+                for (Order.Item item : items) {
+                    item.writeTo(block);
+                }
+            }));
+        }
+    }
+
+    // Returns the menu list, decoding it first if it still comes from the state snapshot
+    private List<Order.Item> menu() {
+        if (encodedMenu != null) {
+            synchronized (this) {
+                BinaryReader encoded = encodedMenu;
+                if (encoded != null) {
+                    List<Order.Item> items = new ArrayList<>();
+                    for (int count = encoded.readInt(); count > 0; count--) {
+                        items.add(new Order.Item(encoded));
+                    }
+                    menu = items;
+                    encodedMenu = null;
+                }
+            }
+        }
+        return menu;
+    }
+
     // Getters and Setters
 
     public List<Order> getOrders() {
@@ -79,11 +145,12 @@ public class RestaurantUser extends User {
     }
 
     public List<Order.Item> getMenu() {
-        return new ArrayList<>(menu);
+        return new ArrayList<>(menu());
     }
 
-    public void setMenu(List<Order.Item> menu) {
+    public synchronized void setMenu(List<Order.Item> menu) {
         this.menu = new ArrayList<>(menu);
+        this.encodedMenu = null;
     }
 
     public String getBusinessPhoneNumber() {
@@ -133,22 +200,22 @@ public class RestaurantUser extends User {
             throw new IllegalArgumentException("Item name cannot be null or empty");
         }
         Order.Item item = new Order.Item(itemName, price);
-        menu.add(item);
+        menu().add(item);
     }
 
     // Adds a new item to the restaurant's menu
     public void addMenuItem(Order.Item item) {
-        menu.add(item);
+        menu().add(item);
     }
 
     // Removes an item from the restaurant's menu by name
     public void removeMenuItem(String itemName) {
-        menu.removeIf(item -> item.getName().equals(itemName));
+        menu().removeIf(item -> item.getName().equals(itemName));
     }
 
     // Disables an item on the menu by name
     public void disableMenuItem(String menuItemName) {
-        for (Order.Item item : menu) {
+        for (Order.Item item : menu()) {
             if (item.getName().equals(menuItemName)) {
                 item.setAvailable(false);
                 break;
@@ -158,7 +225,7 @@ public class RestaurantUser extends User {
 
     // Enables an item on the menu by name
     public void enableMenuItem(String menuItemName) {
-        for (Order.Item item : menu) {
+        for (Order.Item item : menu()) {
             if (item.getName().equals(menuItemName)) {
                 item.setAvailable(true);
                 break;
@@ -168,7 +235,7 @@ public class RestaurantUser extends User {
 
     // Disables all items on the menu
     public void disableAllMenuItems() {
-        for (Order.Item item : menu) {
+        for (Order.Item item : menu()) {
             item.setAvailable(false);
         }
     }
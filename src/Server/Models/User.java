@@ -1,7 +1,12 @@
 // Group: 6
 package Server.Models;
 
+import Server.Utilities.BinaryReader;
+import Server.Utilities.BinaryWriter;
 import Server.Utilities.GeoLocationService;
+import Server.Utilities.ServerLogger;
+
+import java.io.IOException;
 
 public abstract class User {
     private String userName; // Username of the user
@@ -22,7 +27,7 @@ public abstract class User {
         try {
             this.location = geoLocationService.getCoordinates(address);
         } catch (Exception e) {
-            System.out.println("Error getting coordinates for address: " + address);
+            ServerLogger.warn("geo", "Error getting coordinates for address: " + address);
         }
     }
 
@@ -38,6 +43,30 @@ public abstract class User {
         this.location[1] = Double.parseDouble(fields[7]);
     }
 
+    // Constructor to initialize a User object from a state snapshot record, see writeTo
+    protected User(BinaryReader in) {
+        this.userName = in.readString();
+        this.hashedPassword = in.readString();
+        this.address = in.readString();
+        this.phoneNumber = in.readString();
+        this.email = in.readString();
+        this.location = in.readBoolean() ? new double[]{in.readDouble(), in.readDouble()} : null;
+    }
+
+    // Writes the user's fields to a state snapshot record, subclasses write theirs after these
+    public void writeTo(BinaryWriter out) throws IOException {
+        out.writeString(userName);
+        out.writeString(hashedPassword);
+        out.writeString(address);
+        out.writeString(phoneNumber);
+        out.writeString(email);
+        out.writeBoolean(location != null);
+        if (location != null) {
+            out.writeDouble(location[0]);
+            out.writeDouble(location[1]);
+        }
+    }
+
     // Getters and Setters
 
     public String getUserName() {
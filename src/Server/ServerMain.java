@@ -2,9 +2,13 @@
 package Server;
 
 import Server.App.ClientHandler;
+import Server.App.ConnectionReactor;
+import Server.App.PushBus;
 import Server.App.ServerApp;
+import Server.App.SessionReaper;
 import Server.Models.Order;
 import Server.Utilities.ImageServer;
+import Server.Utilities.ServerLogger;
 
 import java.io.File;
 import java.io.IOException;
@@ -26,6 +30,9 @@ public class ServerMain {
     public static final int SERVER_PORT = 12345;
     public static final int IMAGE_SERVER_PORT = 8080;
     public static final int THREAD_POOL_SIZE = 30;
+    public static final String CONNECTION_MODE = "reactor"; // "reactor" (NIO selector, pooled request workers), "pool" (one pooled thread per connection) or "virtual" (one virtual thread per connection)
+    public static final ServerLogger.Level LOG_LEVEL = ServerLogger.Level.INFO; // DEBUG also logs distances and image requests
+    public static final int REQUEST_LOG_SAMPLE_RATE = 1; // Log one in N requests and responses, raise under load
     public static final boolean RUNNING_ON_SERVER = false;
     public static final String IMAGE_URL = RUNNING_ON_SERVER ? "images.usainwolt.xyz" : SERVER_IP + ":" +   IMAGE_SERVER_PORT;
 
@@ -33,19 +40,23 @@ public class ServerMain {
      * The main method starts the server application.
      * It sets up the server IP, starts the image server, initializes directories,
      * loads data from JSON files, and begins listening for client connections.
+     * The connection mode can be overridden with the first argument ("reactor", "pool" or "virtual").
      */
     public static void main(String[] args) {
         // Get the local IP address of the server
         if (RUNNING_ON_SERVER)
             SERVER_IP = getLocalIpAddress();
-        System.out.println("Server IP: " + SERVER_IP);
+        ServerLogger.setLevel(LOG_LEVEL);
+        ServerLogger.setSampleRate("request", REQUEST_LOG_SAMPLE_RATE);
+        ServerLogger.setSampleRate("response", REQUEST_LOG_SAMPLE_RATE);
+        ServerLogger.info("server", "Server IP: " + SERVER_IP);
         try {
             // Start the image server in a new thread
             new Thread(() -> {
                 try {
                     ImageServer.startServer(IMAGE_SERVER_PORT); // Start the image server
                 } catch (IOException e) {
-                    e.printStackTrace();
+                    ServerLogger.error("image", "Could not start the image server", e);
                 }
             }).start();
 
@@ -58,32 +69,82 @@ public class ServerMain {
                 }
             }
 
-            // Load users and menus data from JSON files
-            loadUsersFromJSON();
-            loadMenusFromJSON();
-
-
-            // Set up server socket to listen for incoming client connections
-            ServerSocket serverSocket = new ServerSocket(SERVER_PORT);
-            System.out.println("Server is listening on port " + SERVER_PORT);
-
-            // Initialize a thread pool for handling client connections
-            ExecutorService executorService = Executors.newFixedThreadPool(THREAD_POOL_SIZE);
-
+            // Load the orders, then the users and menus from the state snapshot if it is current, otherwise
+            // import the JSON files, and link the orders to their users. The time of every phase is logged.
+            long phaseStart = System.nanoTime();
+            loadOrders();
+            phaseStart = phaseDone("orders", phaseStart);
+            if (stateSnapshot.load(allUsers)) {
+                phaseStart = phaseDone("snapshot", phaseStart);
+            } else {
+                loadUsersFromJSON();
+                phaseStart = phaseDone("users", phaseStart);
+                loadMenusFromJSON();
+                phaseStart = phaseDone("menus", phaseStart);
+            }
+            linkOrders();
+            phaseStart = phaseDone("links", phaseStart);
+            // Compact the loaded orders into a snapshot and start journaling order changes
+            orderJournal.start();
+            phaseDone("journal", phaseStart);
+            // Continue the order IDs after the reserved ones and after every loaded order
+            orderIds.load(orders.getAll().stream().mapToInt(Order::getOrderId).max().orElse(-1));
+            ServerLogger.info("server", "Loaded " + allUsers.size() + " users and " + orders.size() + " orders, startup phases in ms: " + startupMillis);
+            // Write changed users in the background, and whatever is still unsaved on shutdown
+            userPersister.start();
+            // Snapshot the users and menus on shutdown for a fast restart
+            stateSnapshot.writeOnExit(allUsers, userPersister);
+
+            // Ping silent clients and close dead ones, connections have no socket timeout
+            SessionReaper.start();
+            // Push new orders and status changes to restaurants, customers and couriers
+            ServerApp.orders.addListener(PushBus::onOrderStatusChanged);
+
+            // Start accepting clients in the selected connection mode
+            String mode = args != null && args.length > 0 ? args[0] : CONNECTION_MODE;
+            if (mode.equals("pool")) {
+                runThreadPerConnection(Executors.newFixedThreadPool(THREAD_POOL_SIZE), Executors.newFixedThreadPool(THREAD_POOL_SIZE), mode);
+            } else if (mode.equals("virtual")) {
+                ExecutorService virtualThreads = Executors.newVirtualThreadPerTaskExecutor();
+                runThreadPerConnection(virtualThreads, virtualThreads, mode);
+            } else {
+                runReactor();
+            }
+        } catch (IOException e) {
+            ServerLogger.error("server", "Server stopped", e);
+        }
+    }
 
-            // Main server loop to handle incoming client connections
-            while (true) {
-                Socket clientSocket = serverSocket.accept();
-                System.out.println("New client connected");
-                clientSocket.setSoTimeout(30000); // Set a timeout of 30 seconds for the client socket
+    // Records how long a startup phase took, returns the time it ended
+    private static long phaseDone(String phase, long startNanos) {
+        long now = System.nanoTime();
+        startupMillis.put(phase, (now - startNanos) / 1_000_000);
+        return now;
+    }
 
-                // Create a new thread to handle the client using ClientHandler
-                executorService.execute(new ClientHandler(clientSocket));
-                ServerApp.cleanUpLoggedInRestaurants();
-            }
+    // Serves clients through the NIO reactor, only complete requests occupy a worker thread
+    private static void runReactor() throws IOException {
+        ExecutorService workers = Executors.newFixedThreadPool(THREAD_POOL_SIZE);
+        ConnectionReactor reactor = new ConnectionReactor(SERVER_PORT, workers);
+        ServerLogger.info("server", "Server is listening on port " + SERVER_PORT + " (reactor mode)");
+        reactor.run();
+    }
 
-        } catch (IOException e) {
-            e.printStackTrace();
+    // Serves every client on its own thread, which blocks in readLine while the client is connected.
+    // With the fixed pool only THREAD_POOL_SIZE clients are served at once, virtual threads have no such limit.
+    // Pipelined requests (the ones with a requestId) run on pipelineExecutor.
+    private static void runThreadPerConnection(ExecutorService executorService, ExecutorService pipelineExecutor, String mode) throws IOException {
+        // Set up server socket to listen for incoming client connections
+        ServerSocket serverSocket = new ServerSocket(SERVER_PORT);
+        ServerLogger.info("server", "Server is listening on port " + SERVER_PORT + " (" + mode + " mode)");
+
+        // Main server loop to handle incoming client connections
+        while (true) {
+            Socket clientSocket = serverSocket.accept();
+            ServerLogger.info("connection", "New client connected from " + clientSocket.getRemoteSocketAddress());
+
+            // Create a new thread to handle the client using ClientHandler
+            executorService.execute(new ClientHandler(clientSocket, pipelineExecutor));
         }
     }
 
@@ -121,7 +182,7 @@ public class ServerMain {
                 }
             }
         } catch (SocketException e) {
-            e.printStackTrace();
+            ServerLogger.error("server", "Could not determine the local IP address", e);
         }
         return "127.0.0.1";  // Fallback to loopback address if no other IP is found
     }
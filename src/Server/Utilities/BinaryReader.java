@@ -0,0 +1,67 @@
+// Group: 6
+package Server.Utilities;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * BinaryReader reads the fields BinaryWriter wrote, from a buffer that may be a memory-mapped file.
+ * Reading past the end throws BufferUnderflowException.
+ * A reader is not thread-safe, readBlock returns a new reader over a block so it can be read later or elsewhere.
+ */
+public class BinaryReader {
+    private final ByteBuffer buffer;
+
+    public BinaryReader(ByteBuffer buffer) {
+        this.buffer = buffer;
+    }
+
+    public int readInt() {
+        return buffer.getInt();
+    }
+
+    public long readLong() {
+        return buffer.getLong();
+    }
+
+    public double readDouble() {
+        return buffer.getDouble();
+    }
+
+    public boolean readBoolean() {
+        return buffer.get() != 0;
+    }
+
+    public int readByte() {
+        return buffer.get();
+    }
+
+    public String readString() {
+        int length = buffer.getInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    // Skips over a block and returns a reader for it, its bytes are not copied
+    public BinaryReader readBlock() {
+        int length = buffer.getInt();
+        BinaryReader block = new BinaryReader(buffer.slice(buffer.position(), length));
+        buffer.position(buffer.position() + length);
+        return block;
+    }
+
+    // Returns a copy of the bytes that are left, without moving the reader
+    public byte[] remainingBytes() {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.duplicate().get(bytes);
+        return bytes;
+    }
+
+    public boolean hasRemaining() {
+        return buffer.hasRemaining();
+    }
+}
@@ -0,0 +1,75 @@
+// Group: 6
+package Server.Utilities;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * BinaryWriter writes the fields of a binary record, BinaryReader reads them back in the same order.
+ * Numbers are big-endian, strings are a length (-1 for null) followed by UTF-8 bytes, and a block is a length
+ * followed by raw bytes, so a reader can skip it or read it later.
+ */
+public class BinaryWriter {
+    private final DataOutputStream out;
+
+    public BinaryWriter(OutputStream out) {
+        this.out = new DataOutputStream(out);
+    }
+
+    public void writeInt(int value) throws IOException {
+        out.writeInt(value);
+    }
+
+    public void writeLong(long value) throws IOException {
+        out.writeLong(value);
+    }
+
+    public void writeDouble(double value) throws IOException {
+        out.writeDouble(value);
+    }
+
+    public void writeBoolean(boolean value) throws IOException {
+        out.writeBoolean(value);
+    }
+
+    public void writeByte(int value) throws IOException {
+        out.writeByte(value);
+    }
+
+    public void writeString(String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    // Writes a length and the bytes, read back with BinaryReader.readBlock
+    public void writeBlock(byte[] bytes) throws IOException {
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    // Encodes one record into a byte array, for blocks whose length must be known before they are written
+    public static byte[] encode(Record record) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        BinaryWriter writer = new BinaryWriter(bytes);
+        record.writeTo(writer);
+        writer.flush();
+        return bytes.toByteArray();
+    }
+
+    // Writes its fields to a BinaryWriter
+    public interface Record {
+        void writeTo(BinaryWriter out) throws IOException;
+    }
+}
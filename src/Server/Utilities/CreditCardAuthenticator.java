@@ -21,10 +21,10 @@ public class CreditCardAuthenticator {
         // Mock payment logic
         // In real life, this would be a call to a payment gateway
         if (authenticate(creditCardNumber, expirationDate, cvv)) {
-            System.out.println("Payment of $" + amount + " made successfully.");
+            ServerLogger.info("payment", "Payment of $" + amount + " made successfully.");
             return true;
         }
-        System.out.println("Payment failed.");
+        ServerLogger.info("payment", "Payment failed.");
         return false;
     }
 }
@@ -9,16 +9,27 @@ import java.io.IOException;
 import java.text.DateFormat;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
 import java.util.Date;
 import java.util.Locale;
 
 public class CustomDateAdapter extends TypeAdapter<Date> {
+    private static final String PATTERN = "MMM dd, yyyy, hh:mm:ss a";
 
-    private final SimpleDateFormat dateFormat;
+    // DateTimeFormatter is immutable, so one is shared by all threads. It parses several times faster than
+    // SimpleDateFormat, which matters when the server loads every stored order at startup.
+    private static final DateTimeFormatter FORMATTER = DateTimeFormatter.ofPattern(PATTERN, Locale.ENGLISH);
+
+    // SimpleDateFormat is lenient (single-digit days, odd spacing), it reads the dates the strict formatter rejects.
+    // It is not thread-safe and one Gson instance is shared by all worker threads, so every thread gets its own.
+    private final ThreadLocal<SimpleDateFormat> dateFormat;
 
     public CustomDateAdapter() {
         // Define the date format with Locale.ENGLISH
-        this.dateFormat = new SimpleDateFormat("MMM dd, yyyy, hh:mm:ss a", Locale.ENGLISH);
+        this.dateFormat = ThreadLocal.withInitial(() -> new SimpleDateFormat(PATTERN, Locale.ENGLISH));
     }
 
     public static Gson gsonCreator() {
@@ -29,7 +40,7 @@ public class CustomDateAdapter extends TypeAdapter<Date> {
 
     @Override
     public void write(JsonWriter out, Date value) throws IOException {
-        out.value(dateFormat.format(value));  // Write the Date as a formatted string
+        out.value(FORMATTER.format(value.toInstant().atZone(ZoneId.systemDefault())));  // Write the Date as a formatted string
     }
 
     @Override
@@ -40,9 +51,14 @@ public class CustomDateAdapter extends TypeAdapter<Date> {
         dateStr = dateStr.replace("\u202F", " ");
 
         try {
-            return dateFormat.parse(dateStr);  // Parse the string into a Date object
-        } catch (ParseException e) {
-            throw new JsonSyntaxException("Failed to parse date: " + dateStr, e);
+            // In the hour repeated when clocks go back the later time is taken, as SimpleDateFormat does
+            return Date.from(LocalDateTime.parse(dateStr, FORMATTER).atZone(ZoneId.systemDefault()).withLaterOffsetAtOverlap().toInstant());
+        } catch (DateTimeParseException e) {
+            try {
+                return dateFormat.get().parse(dateStr);  // Parse the string into a Date object
+            } catch (ParseException again) {
+                throw new JsonSyntaxException("Failed to parse date: " + dateStr, again);
+            }
         }
     }
 }
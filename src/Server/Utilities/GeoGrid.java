@@ -0,0 +1,213 @@
+// Group: 6
+package Server.Utilities;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * GeoGrid is a spatial index of items placed at latitude/longitude points.
+ * The world is cut into square cells of cellKm (in degrees of latitude, the same number of degrees
+ * of longitude), and each item is kept in the cell its point falls into. A radius query only looks at
+ * the cells that overlap the bounding box of the circle and measures the exact Haversine distance for
+ * the items in them, so it touches a few cells instead of every item. Queries whose box would cover
+ * more cells than are occupied (huge radius, near the poles or across the date line) scan the occupied
+ * cells instead. Results come back sorted by distance.
+ * A k-nearest query walks rings of cells outwards from the query point and stops as soon as the
+ * k-th best distance is closer than anything in the next ring could be.
+ * Items are matched by equals, moving an item is a put with its new point.
+ * Writers hold the write lock, queries hold the read lock.
+ */
+public class GeoGrid<T> {
+    private static final double KM_PER_DEGREE = 111.2; // Length of one degree of latitude
+
+    private final double cellDegrees;
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Map<Long, Map<T, Point>> cells = new HashMap<>();
+    private final Map<T, Point> points = new HashMap<>();
+
+    private record Point(double lat, double lon, long cell) {
+    }
+
+    // One query result, an item and its distance from the query point in kilometers
+    public record Hit<T>(T item, double distanceKm) {
+    }
+
+    public GeoGrid(double cellKm) {
+        this.cellDegrees = cellKm / KM_PER_DEGREE;
+    }
+
+    // Places an item at a point, moving it if it is already in the grid
+    public void put(T item, double lat, double lon) {
+        Point point = new Point(lat, lon, cellOf(lat, lon));
+        lock.writeLock().lock();
+        try {
+            Point old = points.put(item, point);
+            if (old != null) {
+                removeFromCell(old.cell(), item);
+            }
+            cells.computeIfAbsent(point.cell(), c -> new HashMap<>()).put(item, point);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // Removes an item, returns false if it was not in the grid
+    public boolean remove(T item) {
+        lock.writeLock().lock();
+        try {
+            Point old = points.remove(item);
+            if (old == null) {
+                return false;
+            }
+            removeFromCell(old.cell(), item);
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void removeFromCell(long cell, T item) {
+        Map<T, Point> items = cells.get(cell);
+        if (items != null) {
+            items.remove(item);
+            if (items.isEmpty()) {
+                cells.remove(cell);
+            }
+        }
+    }
+
+    // Returns the items within radiusKm of a point, nearest first, at most limit of them (0 for all)
+    public List<Hit<T>> within(double lat, double lon, double radiusKm, int limit) {
+        if (limit > 0) {
+            return nearest(lat, lon, limit, radiusKm);
+        }
+        List<Hit<T>> hits = new ArrayList<>();
+        double latSpan = radiusKm / KM_PER_DEGREE;
+        double widestLat = Math.min(90, Math.abs(lat) + latSpan); // Longitude degrees are shortest here
+        double lonSpan = latSpan / Math.max(Math.cos(Math.toRadians(widestLat)), 1e-9);
+        long minLat = cellIndex(lat - latSpan);
+        long maxLat = cellIndex(lat + latSpan);
+        long minLon = cellIndex(lon - lonSpan);
+        long maxLon = cellIndex(lon + lonSpan);
+        boolean wraps = lon - lonSpan < -180 || lon + lonSpan > 180;
+        lock.readLock().lock();
+        try {
+            double boxCells = (double) (maxLat - minLat + 1) * (maxLon - minLon + 1);
+            if (wraps || boxCells > cells.size()) {
+                for (Map<T, Point> items : cells.values()) {
+                    collect(items.entrySet(), lat, lon, radiusKm, hits);
+                }
+            } else {
+                for (long latCell = minLat; latCell <= maxLat; latCell++) {
+                    for (long lonCell = minLon; lonCell <= maxLon; lonCell++) {
+                        Map<T, Point> items = cells.get(key(latCell, lonCell));
+                        if (items != null) {
+                            collect(items.entrySet(), lat, lon, radiusKm, hits);
+                        }
+                    }
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        hits.sort(Comparator.comparingDouble(Hit::distanceKm));
+        return hits;
+    }
+
+    // Returns the k items nearest to a point that are within maxRadiusKm, nearest first
+    public List<Hit<T>> nearest(double lat, double lon, int k, double maxRadiusKm) {
+        if (k <= 0) {
+            return new ArrayList<>();
+        }
+        PriorityQueue<Hit<T>> best = new PriorityQueue<>(Comparator.comparingDouble((Hit<T> hit) -> hit.distanceKm()).reversed());
+        long latCell = cellIndex(lat);
+        long lonCell = cellIndex(lon);
+        double cellKm = cellDegrees * KM_PER_DEGREE;
+        lock.readLock().lock();
+        try {
+            int seen = 0;
+            for (int ring = 0; seen < points.size(); ring++) {
+                // Anything in this ring is at least ring - 1 whole cells away, east-west cells are narrower away from the equator
+                double widestLat = Math.min(90, Math.abs(lat) + (ring + 1) * cellDegrees);
+                double closest = Math.max(ring - 1, 0) * cellKm * Math.cos(Math.toRadians(widestLat)) * 0.99;
+                if (closest > maxRadiusKm || (best.size() == k && best.peek().distanceKm() <= closest)) {
+                    break;
+                }
+                double lonSpan = (ring + 1) * cellDegrees;
+                if ((double) (2 * ring + 1) * (2 * ring + 1) > cells.size() || lon - lonSpan < -180 || lon + lonSpan > 180) {
+                    // The rings cover more cells than are occupied (or cross the date line), look at every item instead
+                    best.clear();
+                    for (Map<T, Point> items : cells.values()) {
+                        offer(items, lat, lon, maxRadiusKm, k, best);
+                    }
+                    break;
+                }
+                for (long la = latCell - ring; la <= latCell + ring; la++) {
+                    boolean edgeRow = la == latCell - ring || la == latCell + ring;
+                    for (long lo = lonCell - ring; lo <= lonCell + ring; lo += edgeRow || ring == 0 ? 1 : 2 * ring) {
+                        Map<T, Point> items = cells.get(key(la, lo));
+                        if (items != null) {
+                            seen += items.size();
+                            offer(items, lat, lon, maxRadiusKm, k, best);
+                        }
+                    }
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        List<Hit<T>> hits = new ArrayList<>(best);
+        hits.sort(Comparator.comparingDouble(Hit::distanceKm));
+        return hits;
+    }
+
+    private static <T> void offer(Map<T, Point> items, double lat, double lon, double maxRadiusKm, int k, PriorityQueue<Hit<T>> best) {
+        for (Map.Entry<T, Point> entry : items.entrySet()) {
+            Point point = entry.getValue();
+            double distance = GeoLocationService.distanceKm(lat, lon, point.lat(), point.lon());
+            if (distance <= maxRadiusKm && (best.size() < k || distance < best.peek().distanceKm())) {
+                best.add(new Hit<>(entry.getKey(), distance));
+                if (best.size() > k) {
+                    best.poll();
+                }
+            }
+        }
+    }
+
+    private static <T> void collect(Collection<Map.Entry<T, Point>> items, double lat, double lon, double radiusKm, List<Hit<T>> hits) {
+        for (Map.Entry<T, Point> entry : items) {
+            Point point = entry.getValue();
+            double distance = GeoLocationService.distanceKm(lat, lon, point.lat(), point.lon());
+            if (distance <= radiusKm) {
+                hits.add(new Hit<>(entry.getKey(), distance));
+            }
+        }
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return points.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private long cellIndex(double degrees) {
+        return (long) Math.floor(degrees / cellDegrees);
+    }
+
+    private long cellOf(double lat, double lon) {
+        return key(cellIndex(lat), cellIndex(lon));
+    }
+
+    private static long key(long latCell, long lonCell) {
+        return (latCell << 32) ^ (lonCell & 0xffffffffL);
+    }
+}
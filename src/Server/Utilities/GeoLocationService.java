@@ -4,12 +4,13 @@ import Server.Utilities.CustomDateAdapter.*;
 
 import com.google.gson.Gson;
 
-import java.io.BufferedReader;
 import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.net.HttpURLConnection;
-import java.net.URL;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
@@ -27,7 +28,8 @@ import java.util.Properties;
  *
  * The service relies on the OpenCage geocoding API and requires an API key, which should be
  * stored in a file named ".env" in the "src/Server" directory. It uses the Gson library
- * for JSON parsing and handles HTTP requests using HttpURLConnection.
+ * for JSON parsing and handles HTTP requests using a shared java.net.http.HttpClient, which
+ * parks (instead of pinning) virtual threads while waiting for the geocoding service.
  */
 public class GeoLocationService {
     // Retrieve the API key from a properties file
@@ -37,13 +39,16 @@ public class GeoLocationService {
             properties.load(input);
             return properties.getProperty("APIKEY");
         } catch (IOException e) {
-            e.printStackTrace();
+            ServerLogger.warn("geo", "No geocoding API key: " + e.getMessage());
             return null;
         }
     }
 
     private static final String OPEN_CAGE_API_KEY = getApiKey(); // API key for OpenCage geocoding service
     private static final String OPEN_CAGE_API_URL = "https://api.opencagedata.com/geocode/v1/json?q=%s&key=%s"; // URL template for the API
+    private static final HttpClient HTTP_CLIENT = HttpClient.newBuilder()
+            .connectTimeout(Duration.ofSeconds(10))
+            .build(); // Shared client, keeps connections to the API alive between requests
     private final Gson gson = CustomDateAdapter.gsonCreator(); // Gson instance for JSON parsing
 
     // Validate the address using OpenCage API
@@ -79,6 +84,11 @@ public class GeoLocationService {
 
     // Calculate the distance between two points using the Haversine formula
     public double calculateDistance(double lat1, double lon1, double lat2, double lon2) {
+        return distanceKm(lat1, lon1, lat2, lon2);
+    }
+
+    // Haversine distance in kilometers, static so indexes can use it without a service instance
+    public static double distanceKm(double lat1, double lon1, double lat2, double lon2) {
         final int EARTH_RADIUS = 6371; // Radius of Earth in kilometers
 
         double dLat = Math.toRadians(lat2 - lat1); // Difference in latitude
@@ -103,29 +113,28 @@ public class GeoLocationService {
                 return calculateDistance(lat1, lon1, lat2, lon2);
             }
         } catch (IOException e) {
-            e.printStackTrace();
+            ServerLogger.error("geo", "Could not calculate distance", e);
         }
         return -1; // Return -1 if distance cannot be calculated
     }
 
-    // Send a GET request using HttpURLConnection
+    // Send a GET request using the shared HttpClient
     private String sendGetRequest(String urlString) throws IOException {
-        URL url = new URL(urlString);
-        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
-        connection.setRequestMethod("GET");
-
-        int responseCode = connection.getResponseCode();
-        if (responseCode == HttpURLConnection.HTTP_OK) { // success
-            try (BufferedReader in = new BufferedReader(new InputStreamReader(connection.getInputStream()))) {
-                StringBuilder response = new StringBuilder();
-                String inputLine;
-                while ((inputLine = in.readLine()) != null) {
-                    response.append(inputLine);
-                }
-                return response.toString();
-            }
+        HttpRequest request = HttpRequest.newBuilder(URI.create(urlString))
+                .timeout(Duration.ofSeconds(10))
+                .GET()
+                .build();
+        HttpResponse<String> response;
+        try {
+            response = HTTP_CLIENT.send(request, HttpResponse.BodyHandlers.ofString());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("GET request interrupted", e);
+        }
+        if (response.statusCode() == 200) { // success
+            return response.body();
         } else {
-            throw new IOException("GET request failed with response code: " + responseCode);
+            throw new IOException("GET request failed with response code: " + response.statusCode());
         }
     }
 
@@ -145,7 +154,7 @@ public class GeoLocationService {
                 return calculatedDistance <= distance;
             }
         } catch (IOException e) {
-            e.printStackTrace(); // Print error if unable to get coordinates
+            ServerLogger.error("geo", "Unable to get coordinates", e);
         }
         return false; // Return false if distance check fails
     }
@@ -29,7 +29,7 @@ public class ImageServer {
         // Start the server
         server.setExecutor(null); // Use the default executor
         server.start();
-        System.out.println("ImageServer started on port 8080...");
+        ServerLogger.info("image", "ImageServer started on port " + port);
     }
 
     // Handler for processing incoming HTTP requests
@@ -38,16 +38,13 @@ public class ImageServer {
         public void handle(HttpExchange exchange) throws IOException {
             // Get the request URI path, e.g., "/menu_item_images/restaurant1_Item0.jpg"
             String requestPath = exchange.getRequestURI().getPath();
-            System.out.println("Requested path: " + requestPath);
+            ServerLogger.debug("image", "Requested path: " + requestPath);
 
             // Set the base directory for images
             File file = new File("." + requestPath);
-            System.out.println("File path resolved to: " + file.getAbsolutePath());
 
             // Check if the requested file exists and is a file
             if (file.exists() && file.isFile() && isImage(file.getAbsolutePath())) {
-                System.out.println("File found: " + file.getAbsolutePath());
-
                 // Get the content type (e.g., "image/jpeg")
                 String contentType = Files.probeContentType(file.toPath());
 
@@ -66,7 +63,7 @@ public class ImageServer {
                 }
             } else {
                 // If the file is not found, return a 404 response
-                System.out.println("File not found: " + file.getAbsolutePath());
+                ServerLogger.debug("image", "File not found: " + requestPath);
                 String notFoundMessage = "404 (Not Found)\n";
                 exchange.sendResponseHeaders(404, notFoundMessage.length());
                 try (OutputStream os = exchange.getResponseBody()) {
@@ -80,7 +77,6 @@ public class ImageServer {
         String[] parts = path.split("\\.");
         if(parts.length == 0) return false;
         String extension = parts[parts.length - 1];
-        System.out.println("Extension: " + extension);
         return extension.equals("jpg") || extension.equals("jpeg") || extension.equals("png");
     }
 }
@@ -0,0 +1,205 @@
+// Group: 6
+package Server.Utilities;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+/**
+ * ServerLogger is the server's asynchronous logger.
+ * Callers only put an entry into a bounded ring buffer and return, a background thread formats
+ * the entries and writes them to stdout in batches, so handler threads never block on the console.
+ * When the buffer is full new entries are dropped and counted instead of waiting.
+ * Every entry has a level and a category; DEBUG and INFO entries can be sampled per category
+ * (for example only every 10th "request" entry). Messages are truncated to MAX_MESSAGE_LENGTH and
+ * secrets (passwords, card numbers, CVVs, tokens) and Base64 images are redacted before they are written.
+ */
+public class ServerLogger {
+    public enum Level { DEBUG, INFO, WARN, ERROR }
+
+    // Configuration
+    public static final int BUFFER_CAPACITY = 16 * 1024; // Entries waiting to be written
+    public static final int MAX_MESSAGE_LENGTH = 512; // Longer messages are cut, the full length is noted
+    private static final int DRAIN_BATCH = 256;
+
+    private static final Pattern SECRET_FIELD = Pattern.compile(
+            "\"(password|oldPassword|newPassword|cvv|creditCardNumber|expirationDate|token)\"\\s*:\\s*\"[^\"]*\"?");
+    private static final Pattern BINARY_FIELD = Pattern.compile(
+            "\"(image|profilePicture|imageData)\"\\s*:\\s*\"[^\"]*\"?");
+    private static final Pattern CARD_NUMBER = Pattern.compile("\\b\\d{12,15}(\\d{4})\\b");
+
+    private static volatile Level level = Level.INFO;
+    private static final Map<String, Integer> sampleRates = new ConcurrentHashMap<>(); // Category -> log one in N
+    private static final Map<String, AtomicLong> sampleCounters = new ConcurrentHashMap<>();
+    private static final BlockingQueue<Entry> buffer = new ArrayBlockingQueue<>(BUFFER_CAPACITY);
+    private static final AtomicLong dropped = new AtomicLong();
+    private static final Writer out = new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8), 64 * 1024);
+    private static long reportedDrops; // Guarded by the class lock in writeBatch
+    private static final ThreadLocal<SimpleDateFormat> TIME_FORMAT =
+            ThreadLocal.withInitial(() -> new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS"));
+
+    static {
+        Thread writer = new Thread(ServerLogger::drain, "server-logger");
+        writer.setDaemon(true);
+        writer.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(ServerLogger::flush));
+    }
+
+    private record Entry(long time, Level level, String category, String thread, String message, String payload, Throwable error) {
+    }
+
+    private ServerLogger() {
+    }
+
+    // Sets the lowest level that is logged
+    public static void setLevel(Level newLevel) {
+        level = newLevel;
+    }
+
+    // Logs only one in "oneIn" DEBUG and INFO entries of a category, 1 logs all of them
+    public static void setSampleRate(String category, int oneIn) {
+        sampleRates.put(category, Math.max(1, oneIn));
+    }
+
+    // Returns true if an entry of this level would be logged, lets callers skip building expensive messages
+    public static boolean isEnabled(Level entryLevel) {
+        return entryLevel.compareTo(level) >= 0;
+    }
+
+    public static void debug(String category, String message) {
+        log(Level.DEBUG, category, message, null);
+    }
+
+    public static void info(String category, String message) {
+        log(Level.INFO, category, message, null);
+    }
+
+    // Logs a message followed by a payload (for example a request line). The payload is only cut and
+    // redacted by the writer thread, so the caller never copies a large payload.
+    public static void info(String category, String message, String payload) {
+        log(Level.INFO, category, message, payload, null);
+    }
+
+    public static void warn(String category, String message) {
+        log(Level.WARN, category, message, null);
+    }
+
+    public static void error(String category, String message, Throwable error) {
+        log(Level.ERROR, category, message, error);
+    }
+
+    // Returns the number of entries dropped because the buffer was full
+    public static long getDroppedCount() {
+        return dropped.get();
+    }
+
+    public static void log(Level entryLevel, String category, String message, Throwable error) {
+        log(entryLevel, category, message, null, error);
+    }
+
+    // Queues an entry without ever blocking the caller
+    public static void log(Level entryLevel, String category, String message, String payload, Throwable error) {
+        if (!isEnabled(entryLevel) || !sampled(entryLevel, category)) {
+            return;
+        }
+        Entry entry = new Entry(System.currentTimeMillis(), entryLevel, category, Thread.currentThread().getName(), message, payload, error);
+        if (!buffer.offer(entry)) {
+            dropped.incrementAndGet();
+        }
+    }
+
+    private static boolean sampled(Level entryLevel, String category) {
+        if (entryLevel.compareTo(Level.WARN) >= 0) {
+            return true; // Warnings and errors are never sampled away
+        }
+        Integer oneIn = sampleRates.get(category);
+        if (oneIn == null || oneIn <= 1) {
+            return true;
+        }
+        return sampleCounters.computeIfAbsent(category, c -> new AtomicLong()).getAndIncrement() % oneIn == 0;
+    }
+
+    // Cuts a message to the maximum length and masks secrets and Base64 payloads
+    public static String sanitize(String message) {
+        if (message == null) {
+            return "null";
+        }
+        boolean truncated = message.length() > MAX_MESSAGE_LENGTH;
+        String text = truncated ? message.substring(0, MAX_MESSAGE_LENGTH) : message;
+        text = SECRET_FIELD.matcher(text).replaceAll("\"$1\":\"***\"");
+        text = BINARY_FIELD.matcher(text).replaceAll("\"$1\":\"<binary>\"");
+        text = CARD_NUMBER.matcher(text).replaceAll("**** $1");
+        return truncated ? text + "... (" + message.length() + " chars)" : text;
+    }
+
+    // Writes everything still in the buffer, called on shutdown
+    public static void flush() {
+        List<Entry> batch = new ArrayList<>();
+        buffer.drainTo(batch);
+        writeBatch(batch);
+    }
+
+    // The background writer, takes entries in batches and writes them with a single flush per batch
+    private static void drain() {
+        List<Entry> batch = new ArrayList<>(DRAIN_BATCH);
+        while (true) {
+            try {
+                batch.add(buffer.take());
+                buffer.drainTo(batch, DRAIN_BATCH - 1);
+                writeBatch(batch);
+                batch.clear();
+            } catch (InterruptedException e) {
+                return;
+            } catch (RuntimeException e) {
+                batch.clear(); // Never let a bad entry stop the writer
+            }
+        }
+    }
+
+    private static synchronized void writeBatch(List<Entry> batch) {
+        try {
+            long drops = dropped.get();
+            if (drops > reportedDrops) {
+                out.write("[WARN] [logger] " + (drops - reportedDrops) + " log entries dropped, buffer was full\n");
+                reportedDrops = drops;
+            }
+            for (Entry entry : batch) {
+                out.write(format(entry));
+            }
+            out.flush();
+        } catch (IOException e) {
+            // Nowhere left to report it
+        }
+    }
+
+    private static String format(Entry entry) {
+        StringBuilder line = new StringBuilder(128);
+        line.append(TIME_FORMAT.get().format(new Date(entry.time())))
+                .append(" [").append(entry.level()).append("] [").append(entry.category()).append("] [")
+                .append(entry.thread()).append("] ").append(sanitize(entry.message()));
+        if (entry.payload() != null) {
+            line.append(sanitize(entry.payload()));
+        }
+        line.append('\n');
+        if (entry.error() != null) {
+            StringWriter trace = new StringWriter();
+            entry.error().printStackTrace(new PrintWriter(trace));
+            line.append(trace);
+        }
+        return line.toString();
+    }
+}
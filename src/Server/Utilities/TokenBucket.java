@@ -0,0 +1,54 @@
+// Group: 6
+package Server.Utilities;
+
+/**
+ * TokenBucket is a simple token bucket rate limiter.
+ * The bucket holds up to "capacity" tokens and is refilled continuously at "refillPerSecond".
+ * Every accepted request takes one token, so a client can burst up to the capacity
+ * and then keep going at the refill rate.
+ */
+public class TokenBucket {
+    private final double capacity;
+    private final double refillPerNano;
+    private double tokens;
+    private long lastRefill;
+
+    // Constructor for a bucket that starts full
+    public TokenBucket(double capacity, double refillPerSecond) {
+        this.capacity = capacity;
+        this.refillPerNano = refillPerSecond / 1_000_000_000.0;
+        this.tokens = capacity;
+        this.lastRefill = System.nanoTime();
+    }
+
+    // Takes one token if available, returns false when the caller should be throttled
+    public synchronized boolean tryAcquire() {
+        refill();
+        if (tokens >= 1) {
+            tokens -= 1;
+            return true;
+        }
+        return false;
+    }
+
+    // Returns the number of milliseconds until the next token becomes available
+    public synchronized long millisUntilNextToken() {
+        refill();
+        if (tokens >= 1) {
+            return 0;
+        }
+        return (long) Math.ceil((1 - tokens) / refillPerNano / 1_000_000.0);
+    }
+
+    // Returns true if the bucket has been untouched long enough to be full again
+    public synchronized boolean isFull() {
+        refill();
+        return tokens >= capacity;
+    }
+
+    private void refill() {
+        long now = System.nanoTime();
+        tokens = Math.min(capacity, tokens + (now - lastRefill) * refillPerNano);
+        lastRefill = now;
+    }
+}